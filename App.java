@@ -11,6 +11,7 @@ public class App {
 
     private static final Services SVC = new Services();
     private static final Scanner IN = new Scanner(System.in);
+    private static final int HISTORY_PAGE_SIZE = 20;
 
     public static void main(String[] args) {
         while (true) {
@@ -60,16 +61,18 @@ public class App {
             System.out.print("Username: "); String u = IN.nextLine().trim();
             System.out.print("Password: "); String p = IN.nextLine().trim();
 
-            Integer customerId = SVC.login(u, p);
-            if (customerId == null) {
+            SessionStore.Session session = SVC.openSession(u, p);
+            if (session == null) {
                 System.out.println("Invalid Username or Password.");
                 return;
             }
+            int customerId = session.customerId;
             System.out.println("Login successful. Customer ID = " + customerId);
 
             // After login
             System.out.print("Enter Your Account No: ");
             long acc = Long.parseLong(IN.nextLine().trim());
+            SVC.authorize(session.token, acc);
 
             while (true) {
                 System.out.println("\n-- Main Menu --");
@@ -85,6 +88,16 @@ public class App {
                 System.out.print("Choose: ");
                 String ch = IN.nextLine().trim();
 
+                if (ch.equals("9")) {
+                    SVC.logout(session.token);
+                    return; // back to root
+                }
+                try {
+                    SVC.authorize(session.token, acc);
+                } catch (IllegalArgumentException authEx) {
+                    System.out.println(authEx.getMessage());
+                    return; // session expired: back to the login screen
+                }
                 try {
                     switch (ch) {
                         case "1": handleDeposit(acc); break;
@@ -101,7 +114,6 @@ public class App {
                             }
                             break;
                         case "8": handleEmployeeDetails(); break;
-                        case "9": return; // back to root
                         default:  System.out.println("Invalid Choice.");
                     }
                 } catch (Exception opEx) {
@@ -144,15 +156,21 @@ public class App {
     }
 
     private static void handleTxnHistory(long acc) throws Exception {
-        List<Txn> list = SVC.transactionHistory(acc);
-        if (list.isEmpty()) {
+        TxnPage page = SVC.transactionHistoryPage(acc, null, HISTORY_PAGE_SIZE);
+        if (page.rows.isEmpty()) {
             System.out.println("No Transactions.");
-        } else {
-            System.out.println("TxnNo | Type      | Date & Time           | Amount     | Account");
-            for (Txn t : list) {
+            return;
+        }
+        System.out.println("TxnNo | Type      | Date & Time           | Amount     | Account");
+        while (true) {
+            for (Txn t : page.rows) {
                 System.out.printf("%5d | %-9s | %-20s | %10s | %d%n",
                         t.txnNo, t.txnType, String.valueOf(t.tnxDate), t.amount.toPlainString(), t.accountNo);
             }
+            if (page.next == null) return;
+            System.out.print("Press Enter for More, or q to Stop: ");
+            if (IN.nextLine().trim().equalsIgnoreCase("q")) return;
+            page = SVC.transactionHistoryPage(acc, page.next, HISTORY_PAGE_SIZE);
         }
     }
 
@@ -161,7 +179,8 @@ public class App {
             System.out.println("\n-- Loan --");
             System.out.println("1) Apply For Loan");
             System.out.println("2) Loan Status");
-            System.out.println("3) Exit");
+            System.out.println("3) Repayment Schedule");
+            System.out.println("4) Exit");
             System.out.print("Choose: ");
             String ch = IN.nextLine().trim();
             if ("1".equals(ch)) {
@@ -184,6 +203,13 @@ public class App {
                     }
                 }
             } else if ("3".equals(ch)) {
+                System.out.print("Loan ID: ");
+                int loanId = Integer.parseInt(IN.nextLine().trim());
+                System.out.println("  No | Due        |    Payment |  Principal |   Interest |     Balance");
+                SVC.streamLoanSchedule(customerId, loanId, r -> System.out.printf("%4d | %s | %10s | %10s | %10s | %11s%n",
+                        r.number, r.due, Money.ofCents(r.paymentCents), Money.ofCents(r.principalCents),
+                        Money.ofCents(r.interestCents), Money.ofCents(r.balanceCents)));
+            } else if ("4".equals(ch)) {
                 return;
             } else {
                 System.out.println("Invalid Choice.");
@@ -41,6 +41,8 @@ CREATE TABLE Account(
 account_no BIGINT,
 balance DECIMAL(15,2) DEFAULT 0.00,
 customer_id INT,
+next_txn_no INT NOT NULL DEFAULT 1,
+tier VARCHAR(16) NOT NULL DEFAULT 'standard',
 PRIMARY KEY(account_no),
 FOREIGN KEY(customer_id) REFERENCES Customer(customer_id)
 ON DELETE CASCADE
@@ -50,8 +52,8 @@ ON UPDATE CASCADE
 -- Transaction Table(Weak Entity)
 CREATE TABLE Txn(
 txn_no INT NOT NULL,
-txn_type ENUM('Deposit','Withdraw','Transfer') NOT NULL,
-tnx_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+txn_type ENUM('Deposit','Withdraw','Transfer','Interest') NOT NULL,
+tnx_date TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
 amount DECIMAL(15,2) NOT NULL,
 account_no BIGINT,
 PRIMARY KEY(account_no,txn_no),
@@ -60,24 +62,41 @@ ON DELETE CASCADE
 ON UPDATE CASCADE
 );
 
+-- History pages seek on (account_no, tnx_date, txn_no) instead of sorting every row of the account
+CREATE INDEX idx_txn_account_date ON Txn(account_no, tnx_date, txn_no);
+
+-- Accounts off the default velocity tier are loaded by tier
+CREATE INDEX idx_account_tier ON Account(tier);
+
+-- VelocityLimiter warms its windows from the last few minutes of rows
+CREATE INDEX idx_txn_date ON Txn(tnx_date);
+
 -- Loan Table
 CREATE TABLE Loan(
 loan_id INT,
 loan_type VARCHAR(50) NOT NULL,
 loan_amount DECIMAL(15,2) NOT NULL,
 status ENUM('Pending','Approved','Rejected') DEFAULT 'Pending',
+annual_rate DECIMAL(5,2),               -- fixed rate; NULL follows loan_rate for the type
+tenure_months INT NOT NULL DEFAULT 60,
+start_date DATE,                        -- set on approval; installments fall due monthly after it
+emi DECIMAL(15,2),                      -- maintained by LoanSchedules
+priced_rate DECIMAL(5,2),               -- floating: rate of the current emi (last loan_reprice row)
+priced_from INT NOT NULL DEFAULT 0,     -- floating: installments already due when that rate took over
 PRIMARY KEY(loan_id),
 customer_id INT,
 FOREIGN KEY(customer_id) REFERENCES Customer(customer_id)
 ON DELETE CASCADE
 ON UPDATE CASCADE
 );
+-- Decision engine pages through pending loans in loan_id order
+CREATE INDEX idx_loan_status ON Loan(status, loan_id);
 
 -- Login Table 
 CREATE TABLE Login(
 login_id INT,
 username VARCHAR(50),
-password VARCHAR(50),
+password VARCHAR(255),
 customer_id INT,
 PRIMARY KEY(login_id),
 FOREIGN KEY(customer_id) REFERENCES Customer(customer_id)
@@ -85,6 +104,104 @@ ON DELETE CASCADE
 ON UPDATE CASCADE
 );
 
+-- Usernames are unique; login is a point lookup on this index
+CREATE UNIQUE INDEX uq_login_username ON Login(username);
+
+-- ID Sequence Table (ranges are reserved in blocks by the application)
+CREATE TABLE id_sequence(
+seq_name VARCHAR(50),
+next_val BIGINT NOT NULL,
+PRIMARY KEY(seq_name)
+);
+
+-- Interest accrual plan and progress (one row per account range of a run; done ranges are skipped on resume)
+CREATE TABLE interest_range(
+run_date DATE,
+range_start BIGINT,
+range_end BIGINT NOT NULL,
+done BOOLEAN NOT NULL DEFAULT FALSE,
+accounts INT,
+interest DECIMAL(15,2),
+PRIMARY KEY(run_date, range_start)
+);
+
+-- Ledger write-behind progress (highest journal sequence applied to Account/Txn, per shard)
+CREATE TABLE ledger_checkpoint(
+shard INT,
+applied_seq BIGINT NOT NULL,
+PRIMARY KEY(shard)
+);
+
+-- Floating rate per loan product, keyed like LoanDecisionEngine's limits (lower case, no " loan")
+CREATE TABLE loan_rate(
+loan_type VARCHAR(50),
+annual_rate DECIMAL(5,2) NOT NULL,
+PRIMARY KEY(loan_type)
+);
+
+INSERT INTO loan_rate(loan_type, annual_rate) VALUES
+('home', 8.50), ('car', 9.50), ('business', 11.00), ('education', 7.50), ('personal', 12.00), ('others', 14.00);
+
+-- Rate segments of floating loans (maintained by LoanSchedules): installments after from_installment
+-- are paid at annual_rate, re-amortizing what was still owed; earlier ones keep their segment's rate
+CREATE TABLE loan_reprice(
+loan_id INT,
+from_installment INT,
+annual_rate DECIMAL(5,2) NOT NULL,
+PRIMARY KEY(loan_id, from_installment),
+FOREIGN KEY(loan_id) REFERENCES Loan(loan_id)
+ON DELETE CASCADE
+);
+
+-- Closing balance and day totals per account per day with activity (maintained by BalanceSnapshots)
+CREATE TABLE balance_snapshot(
+account_no BIGINT,
+day DATE,
+closing_balance DECIMAL(15,2) NOT NULL,
+credits DECIMAL(15,2) NOT NULL,
+debits DECIMAL(15,2) NOT NULL,
+txn_count INT NOT NULL,
+PRIMARY KEY(account_no, day),
+FOREIGN KEY(account_no) REFERENCES Account(account_no)
+ON DELETE CASCADE
+);
+
+-- Per-account snapshot progress: Txn rows up to last_txn_no are folded into balance_snapshot
+CREATE TABLE snapshot_watermark(
+account_no BIGINT,
+last_txn_no INT NOT NULL,
+last_day DATE NOT NULL,
+PRIMARY KEY(account_no),
+FOREIGN KEY(account_no) REFERENCES Account(account_no)
+ON DELETE CASCADE
+);
+
+-- Events for alerting and downstream systems, written in the same transaction as the change they
+-- describe and deleted once Outbox has delivered them. No foreign keys: events outlive their rows.
+CREATE TABLE outbox(
+event_id BIGINT NOT NULL AUTO_INCREMENT,
+event_type VARCHAR(32) NOT NULL,
+account_no BIGINT,
+customer_id INT,
+amount DECIMAL(15,2),
+peer_account BIGINT,
+ref_id INT,
+created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+attempts INT NOT NULL DEFAULT 0,        -- failed delivery passes; parked at Outbox maxAttempts
+PRIMARY KEY(event_id)
+);
+
+-- Debits allowed per account tier in VelocityLimiter's sliding window (withdrawals and outgoing transfers)
+CREATE TABLE velocity_limit(
+tier VARCHAR(16),
+max_count INT NOT NULL,
+max_amount DECIMAL(15,2) NOT NULL,
+PRIMARY KEY(tier)
+);
+
+INSERT INTO velocity_limit(tier, max_count, max_amount) VALUES
+('standard', 10, 200000.00), ('premium', 30, 1000000.00), ('business', 200, 10000000.00);
+
 INSERT INTO Branch(branch_id,branch_name,branch_address) 
 VALUES
 (1, 'Gulshan Branch', 'Gulshan-1, Dhaka'),
@@ -176,6 +293,17 @@ VALUES
 (409, 'nayem09', 'nayem@444', 209),
 (410, 'jannat10', 'jannat@555', 210);
 
+-- Start each sequence after the seeded rows
+INSERT INTO id_sequence(seq_name,next_val)
+SELECT 'Customer', COALESCE(MAX(customer_id),0)+1 FROM Customer
+UNION ALL SELECT 'Login', COALESCE(MAX(login_id),0)+1 FROM Login
+UNION ALL SELECT 'Loan', COALESCE(MAX(loan_id),0)+1 FROM Loan
+UNION ALL SELECT 'Account', COALESCE(MAX(account_no),100000010)+1 FROM Account;
+
+-- Continue each account's txn numbering after its seeded Txn rows
+UPDATE Account a
+SET next_txn_no = (SELECT COALESCE(MAX(t.txn_no),0)+1 FROM Txn t WHERE t.account_no = a.account_no);
+
 SELECT* FROM Branch;
 SELECT* FROM Customer;
 SELECT* FROM Employee;
@@ -0,0 +1,152 @@
+package db;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded read-through cache of Account balances with LRU eviction and a TTL.
+// Writers call invalidate() after their transaction commits. Each segment carries a version that
+// invalidate() bumps, and a loader only installs its value if the version it saw before reading
+// is unchanged, so a read that raced a commit can never park the pre-commit balance.
+public class BalanceCache {
+
+    public interface Loader {
+        BigDecimal load(long accountNo) throws SQLException;
+    }
+
+    public static class Stats {
+        public long hits;
+        public long misses;
+        public long evictions;
+        public long expirations;
+        public long invalidations;
+        public long size;
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expirations=%d invalidations=%d",
+                    size, hits, misses, hitRate() * 100, evictions, expirations, invalidations);
+        }
+    }
+
+    private static final class Entry {
+        final BigDecimal balance;
+        final long expiresAt;
+
+        Entry(BigDecimal balance, long expiresAt) {
+            this.balance = balance;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final class Segment {
+        long version;
+        final LinkedHashMap<Long, Entry> map;
+
+        Segment(int capacity) {
+            map = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                    if (size() <= capacity) return false;
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+    }
+
+    private final Segment[] segments;
+    private final long ttlNanos;
+    private final boolean enabled;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public BalanceCache(int maxEntries, long ttlMs) {
+        this.enabled = maxEntries > 0 && ttlMs > 0;
+        int n = 1;
+        while (n < 64 && n * 256 < maxEntries) n <<= 1;
+        this.segments = new Segment[n];
+        int perSegment = Math.max(1, maxEntries / n);
+        for (int i = 0; i < n; i++) segments[i] = new Segment(perSegment);
+        this.ttlNanos = ttlMs * 1_000_000L;
+    }
+
+    private Segment segmentFor(long accountNo) {
+        long h = accountNo * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 32) & (segments.length - 1)];
+    }
+
+    // Missing accounts (loader returns null) are not cached
+    public BigDecimal get(long accountNo, Loader loader) throws SQLException {
+        if (!enabled) return loader.load(accountNo);
+        Segment s = segmentFor(accountNo);
+        long stamp;
+        synchronized (s) {
+            Entry e = s.map.get(accountNo);
+            if (e != null) {
+                if (e.expiresAt - System.nanoTime() > 0) {
+                    hits.increment();
+                    return e.balance;
+                }
+                s.map.remove(accountNo);
+                expirations.increment();
+            }
+            stamp = s.version;
+        }
+        misses.increment();
+        BigDecimal balance = loader.load(accountNo);
+        if (balance != null) {
+            synchronized (s) {
+                if (s.version == stamp) s.map.put(accountNo, new Entry(balance, System.nanoTime() + ttlNanos));
+            }
+        }
+        return balance;
+    }
+
+    public void invalidate(long accountNo) {
+        if (!enabled) return;
+        Segment s = segmentFor(accountNo);
+        synchronized (s) {
+            s.version++;
+            s.map.remove(accountNo);
+        }
+        invalidations.increment();
+    }
+
+    public void invalidateAll() {
+        if (!enabled) return;
+        for (Segment s : segments) {
+            synchronized (s) {
+                s.version++;
+                s.map.clear();
+            }
+        }
+        invalidations.increment();
+    }
+
+    public Stats stats() {
+        Stats st = new Stats();
+        st.hits = hits.sum();
+        st.misses = misses.sum();
+        st.evictions = evictions.sum();
+        st.expirations = expirations.sum();
+        st.invalidations = invalidations.sum();
+        for (Segment s : segments) {
+            synchronized (s) {
+                st.size += s.map.size();
+            }
+        }
+        return st;
+    }
+}
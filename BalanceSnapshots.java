@@ -0,0 +1,211 @@
+package db;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import db.DAOs.*;
+import db.Models.*;
+
+// Daily balance snapshots. balance_snapshot holds one row per account per day with activity: the
+// closing balance and that day's credit/debit totals. snapshot_watermark records, per account, the
+// last txn_no already folded in, so each pass reads only Txn rows newer than that. txn_no is handed
+// out under the account's row lock, so rows commit in txn_no order and nothing can appear below a
+// watermark later.
+//
+// An as-of balance is then the nearest snapshot on or before the day plus the few rows past the
+// watermark dated up to that day, instead of a replay of the account's whole history.
+//
+// Passes may overlap (a cron run next to -Dbms.snapshot.intervalMs, or several JVMs): a pass locks
+// the accounts' watermark rows first, so the other waits and then reads the advanced watermarks. An
+// account's first pass has no row to lock; there the loser fails on the duplicate key and rolls back.
+public class BalanceSnapshots {
+
+    public static class Report {
+        public long accounts;
+        public long rows;
+        public long days;
+        public long millis;
+
+        @Override
+        public String toString() {
+            return String.format("%d accounts, %d txn rows folded into %d account-days, %d ms", accounts, rows, days, millis);
+        }
+    }
+
+    private final SnapshotDAO snapshotDAO = new SnapshotDAO();
+
+    // One pass over every account that has rows past its watermark, batchSize accounts per transaction
+    public Report runOnce(int batchSize) throws SQLException {
+        if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be positive.");
+        long t0 = System.nanoTime();
+        Report rep = new Report();
+        long after = 0;
+        while (true) {
+            List<Long> batch;
+            try (Connection con = DBConnection.getConnection()) {
+                batch = snapshotDAO.accountsBehind(con, after, batchSize);
+            }
+            if (batch.isEmpty()) break;
+            fold(batch, rep);
+            after = batch.get(batch.size() - 1);
+        }
+        rep.millis = (System.nanoTime() - t0) / 1_000_000;
+        return rep;
+    }
+
+    // Balances and new rows come from one consistent read, so closing balances can be worked out
+    // backwards from the current balance without locking the accounts against postings. The locking
+    // read of the watermarks comes first, so that read starts after any overlapping pass committed.
+    private void fold(List<Long> batch, Report rep) throws SQLException {
+        try (Connection con = DBConnection.getConnection()) {
+            int isolation = con.getTransactionIsolation();
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            con.setAutoCommit(false);
+            try {
+                Map<Long, LocalDate> lastDays = snapshotDAO.lockLastDays(con, batch);
+                Map<Long, BigDecimal> balances = snapshotDAO.balances(con, batch);
+                List<Txn> rows = snapshotDAO.rowsPastWatermark(con, batch);
+
+                List<BalanceSnapshot> merge = new ArrayList<>();
+                List<BalanceSnapshot> insert = new ArrayList<>();
+                List<Txn> lastRows = new ArrayList<>();
+                long accounts = 0, days = 0;
+                int i = 0;
+                while (i < rows.size()) {
+                    long acc = rows.get(i).accountNo;
+                    int j = i;
+                    while (j < rows.size() && rows.get(j).accountNo == acc) j++;
+                    BigDecimal balance = balances.get(acc);
+                    if (balance != null) {
+                        List<BalanceSnapshot> perDay = dayTotals(acc, rows.subList(i, j), balance);
+                        LocalDate lastDay = lastDays.get(acc);
+                        for (BalanceSnapshot b : perDay) {
+                            // a day already snapshotted gets the new rows added to its totals
+                            (lastDay != null && !b.day.isAfter(lastDay) ? merge : insert).add(b);
+                        }
+                        lastRows.add(rows.get(j - 1));
+                        accounts++;
+                        days += perDay.size();
+                    }
+                    i = j;
+                }
+                snapshotDAO.saveSnapshots(con, merge, insert);
+                snapshotDAO.advanceWatermarks(con, lastRows, new HashSet<>(lastDays.keySet()));
+                con.commit();
+                rep.accounts += accounts;
+                rep.rows += rows.size();
+                rep.days += days;
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+                con.setTransactionIsolation(isolation);
+            }
+        }
+    }
+
+    // Groups one account's new rows by day; the last day closes at the current balance and each
+    // earlier day at the next day's closing less that day's net movement
+    private static List<BalanceSnapshot> dayTotals(long accountNo, List<Txn> rows, BigDecimal currentBalance) {
+        Map<LocalDate, BalanceSnapshot> byDay = new LinkedHashMap<>();
+        for (Txn t : rows) {
+            BalanceSnapshot b = byDay.computeIfAbsent(t.tnxDate.toLocalDate(), d -> {
+                BalanceSnapshot s = new BalanceSnapshot();
+                s.accountNo = accountNo;
+                s.day = d;
+                s.credits = BigDecimal.ZERO;
+                s.debits = BigDecimal.ZERO;
+                return s;
+            });
+            if (SnapshotDAO.isCredit(t.txnType)) b.credits = b.credits.add(t.amount);
+            else b.debits = b.debits.add(t.amount);
+            b.txnCount++;
+        }
+        List<BalanceSnapshot> out = new ArrayList<>(byDay.values());
+        BigDecimal closing = currentBalance;
+        for (int k = out.size() - 1; k >= 0; k--) {
+            BalanceSnapshot b = out.get(k);
+            b.closingBalance = closing;
+            closing = closing.subtract(b.credits).add(b.debits);
+        }
+        return out;
+    }
+
+    // Balance at the end of 'day'; null when the account does not exist
+    public BigDecimal balanceAsOf(long accountNo, LocalDate day) throws SQLException {
+        try (Connection con = DBConnection.getConnection()) {
+            int isolation = con.getTransactionIsolation();
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            con.setAutoCommit(false);
+            try {
+                BigDecimal current = new AccountDAO().getBalance(con, accountNo);
+                if (current == null) {
+                    con.commit();
+                    return null;
+                }
+                int watermark = snapshotDAO.watermark(con, accountNo);
+                BigDecimal base;
+                BalanceSnapshot s = snapshotDAO.latestOnOrBefore(con, accountNo, day);
+                if (s != null) {
+                    base = s.closingBalance;
+                } else {
+                    BalanceSnapshot first = snapshotDAO.earliest(con, accountNo);
+                    // before the first snapshot day: the balance before any recorded activity
+                    base = first != null
+                            ? first.closingBalance.subtract(first.credits).add(first.debits)
+                            : current.subtract(snapshotDAO.netAfter(con, accountNo, watermark, null));
+                }
+                BigDecimal result = base.add(snapshotDAO.netAfter(con, accountNo, watermark, day.plusDays(1)));
+                con.commit();
+                return result;
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+                con.setTransactionIsolation(isolation);
+            }
+        }
+    }
+
+    // Keeps snapshots current in the background, one pass every intervalMs
+    public Thread startBackground(long intervalMs, int batchSize) {
+        Thread t = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    runOnce(batchSize);
+                } catch (SQLException e) {
+                    System.out.println("Balance snapshot pass failed, retrying next interval: " + e.getMessage());
+                }
+                try {
+                    Thread.sleep(intervalMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "bms-balance-snapshots");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    // java db.BalanceSnapshots          one pass, e.g. from cron
+    // java db.BalanceSnapshots as-of <account_no> <yyyy-mm-dd>
+    public static void main(String[] args) throws Exception {
+        BalanceSnapshots snapshots = new BalanceSnapshots();
+        if (args.length == 3 && args[0].equals("as-of")) {
+            System.out.println(snapshots.balanceAsOf(Long.parseLong(args[1]), LocalDate.parse(args[2])));
+        } else {
+            System.out.println(snapshots.runOnce(Integer.getInteger("bms.snapshot.batchSize", 500)));
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,246 @@
+package db;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Micro benchmarks against a live database: java db.Bench <name> [threads] [opsPerThread]
+public class Bench {
+
+    interface Op {
+        void run() throws Exception;
+    }
+
+    // Runs op on N threads and prints throughput and mean latency
+    static void measure(String label, int threads, int opsPerThread, Op op) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong failures = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < opsPerThread; i++) {
+                        try {
+                            op.run();
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - t0;
+        long ops = (long) threads * opsPerThread;
+        System.out.printf("%-28s threads=%-3d ops=%-7d %10.1f ops/s  mean=%8.3f ms  failures=%d%n",
+                label, threads, ops, ops / (elapsed / 1e9), elapsed / 1e6 * threads / ops, failures.get());
+    }
+
+    static long anyAccount() throws SQLException {
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement("SELECT MIN(account_no) FROM Account");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // Pool vs one DriverManager handshake per call, on the checkBalance query
+    static class PoolVsPerCall {
+        static void run(int threads, int ops) throws Exception {
+            long acc = anyAccount();
+            String url = System.getProperty("bms.db.url", "jdbc:mysql://localhost:3306/Banking_management_system?rewriteBatchedStatements=true&useCursorFetch=true");
+            String user = System.getProperty("bms.db.user", "root");
+            String pass = System.getProperty("bms.db.password", "jyk7890./");
+            DAOs.AccountDAO dao = new DAOs.AccountDAO();
+
+            measure("per-call DriverManager", threads, ops, () -> {
+                try (Connection con = DriverManager.getConnection(url, user, pass)) {
+                    dao.getBalance(con, acc);
+                }
+            });
+            measure("pooled", threads, ops, () -> {
+                try (Connection con = DBConnection.getConnection()) {
+                    dao.getBalance(con, acc);
+                }
+            });
+            System.out.println("Pool: " + DBConnection.poolStats());
+        }
+    }
+
+    static BigDecimal balanceOf(long acc) throws SQLException {
+        try (Connection con = DBConnection.getConnection()) {
+            return new DAOs.AccountDAO().getBalance(con, acc);
+        }
+    }
+
+    // Read-modify-write posting (exists, getBalance, setBalance, insert) vs conditional UPDATE posting
+    static class Posting {
+        static void run(int threads, int ops) throws Exception {
+            long acc = anyAccount();
+            BigDecimal one = new BigDecimal("1.00");
+            BigDecimal expected = BigDecimal.valueOf((long) threads * ops, 0);
+            DAOs.AccountDAO accounts = new DAOs.AccountDAO();
+            DAOs.TxnDAO txns = new DAOs.TxnDAO();
+            Services svc = new Services();
+
+            BigDecimal before = balanceOf(acc);
+            measure("read-modify-write deposit", threads, ops, () -> {
+                try (Connection con = DBConnection.getConnection()) {
+                    con.setAutoCommit(false);
+                    try {
+                        if (!accounts.exists(con, acc)) throw new IllegalArgumentException("Account not found.");
+                        BigDecimal bal = accounts.getBalance(con, acc);
+                        accounts.setBalance(con, acc, bal.add(one));
+                        txns.insertTxn(con, acc, "Deposit", Money.of(one));
+                        con.commit();
+                    } catch (Exception e) {
+                        con.rollback();
+                        throw e;
+                    } finally { con.setAutoCommit(true); }
+                }
+            });
+            System.out.println("  lost updates: " + expected.subtract(balanceOf(acc).subtract(before)));
+
+            before = balanceOf(acc);
+            measure("conditional-update deposit", threads, ops, () -> svc.deposit(acc, one));
+            System.out.println("  lost updates: " + expected.subtract(balanceOf(acc).subtract(before)));
+        }
+    }
+
+    // Parse-per-call vs per-connection statement cache, on the hot balance read
+    static class Statements {
+        static void run(int threads, int ops) throws Exception {
+            long acc = anyAccount();
+            DAOs.AccountDAO dao = new DAOs.AccountDAO();
+            for (int cacheSize : new int[]{0, 64}) {
+                ConnectionPool.Config c = new ConnectionPool.Config();
+                c.url = System.getProperty("bms.db.url",
+                        "jdbc:mysql://localhost:3306/Banking_management_system?useServerPrepStmts=true");
+                c.user = System.getProperty("bms.db.user", "root");
+                c.password = System.getProperty("bms.db.password", "jyk7890./");
+                c.maxSize = threads;
+                c.statementCacheSize = cacheSize;
+                try (ConnectionPool pool = new ConnectionPool(c)) {
+                    measure(cacheSize == 0 ? "prepare per call" : "cached statements", threads, ops, () -> {
+                        try (Connection con = pool.getConnection()) {
+                            dao.getBalance(con, acc);
+                        }
+                    });
+                    System.out.println("  " + pool.stats());
+                }
+            }
+        }
+    }
+
+    // Payroll run: one transfer call per line vs batchTransfer
+    static class Payroll {
+        static void run(int lines) throws Exception {
+            Services svc = new Services();
+            List<Long> accounts = new ArrayList<>();
+            try (Connection con = DBConnection.getConnection();
+                 PreparedStatement ps = con.prepareStatement("SELECT account_no FROM Account ORDER BY balance DESC");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) accounts.add(rs.getLong(1));
+            }
+            long employer = accounts.get(0);
+            List<TransferEngine.TransferInstruction> run = new ArrayList<>();
+            for (int i = 0; i < lines; i++) {
+                long to = accounts.get(1 + i % (accounts.size() - 1));
+                run.add(new TransferEngine.TransferInstruction(employer, to, new BigDecimal("0.01")));
+            }
+
+            measure("payroll single transfers", 1, 1, () -> {
+                for (TransferEngine.TransferInstruction in : run) svc.transfer(in.fromAccount, in.toAccount, in.amount);
+            });
+            measure("payroll batchTransfer", 1, 1, () -> svc.batchTransfer(run));
+        }
+    }
+
+    // Database posting vs in-memory ledger posting (journal force + write-behind)
+    static class Ledger {
+        static void run(int threads, int ops) throws Exception {
+            long acc = anyAccount();
+            Money one = Money.parse("1.00");
+            Services svc = new Services();
+            measure("database deposit", threads, ops, () -> svc.deposit(acc, one));
+
+            LedgerEngine.Config cfg = new LedgerEngine.Config();
+            cfg.journalDir = java.nio.file.Paths.get(System.getProperty("bms.ledger.dir", "ledger"));
+            try (LedgerEngine ledger = LedgerEngine.start(cfg)) {
+                measure("ledger deposit", threads, ops, () -> ledger.deposit(acc, one));
+                long t0 = System.nanoTime();
+                ledger.awaitWriteBehind();
+                System.out.printf("  write-behind drained in %d ms; %s%n", (System.nanoTime() - t0) / 1_000_000, ledger.stats());
+            }
+        }
+    }
+
+    // One commit per deposit vs deposits sharing commits through GroupCommit
+    static class Group {
+        static void run(int threads, int ops) throws Exception {
+            long acc = anyAccount();
+            Money one = Money.parse("1.00");
+            BigDecimal expected = BigDecimal.valueOf((long) threads * ops, 0);
+            DAOs.AccountDAO accounts = new DAOs.AccountDAO();
+            DAOs.TxnDAO txns = new DAOs.TxnDAO();
+            GroupCommit.Posting deposit = con -> {
+                accounts.credit(con, acc, one);
+                txns.insertTxn(con, acc, "Deposit", one);
+            };
+
+            BigDecimal before = balanceOf(acc);
+            measure("commit per deposit", threads, ops, () -> {
+                try (Connection con = DBConnection.getConnection()) {
+                    con.setAutoCommit(false);
+                    try {
+                        deposit.apply(con);
+                        con.commit();
+                    } catch (Exception e) {
+                        con.rollback();
+                        throw e;
+                    } finally { con.setAutoCommit(true); }
+                }
+            });
+            System.out.println("  lost updates: " + expected.subtract(balanceOf(acc).subtract(before)));
+
+            GroupCommit.Config cfg = new GroupCommit.Config();
+            cfg.maxBatch = Integer.getInteger("bms.groupCommit.maxBatch", cfg.maxBatch);
+            cfg.windowMicros = Long.getLong("bms.groupCommit.windowMicros", cfg.windowMicros);
+            try (GroupCommit group = new GroupCommit(cfg)) {
+                before = balanceOf(acc);
+                measure("group commit deposit", threads, ops, () -> group.submit(deposit));
+                System.out.println("  lost updates: " + expected.subtract(balanceOf(acc).subtract(before)));
+                System.out.println("  " + group.stats());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "pool";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int ops = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        switch (name) {
+            case "pool": PoolVsPerCall.run(threads, ops); break;
+            case "posting": Posting.run(threads, ops); break;
+            case "payroll": Payroll.run(threads * ops); break;
+            case "statements": Statements.run(threads, ops); break;
+            case "ledger": Ledger.run(threads, ops); break;
+            case "group": Group.run(threads, ops); break;
+            default: System.out.println("Unknown benchmark: " + name);
+        }
+        System.out.println("SQL by total time:");
+        for (SqlMetrics.StatementStats st : DBConnection.sqlStats()) System.out.println("  " + st);
+        System.exit(0);
+    }
+}
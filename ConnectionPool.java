@@ -0,0 +1,376 @@
+package db;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    // Pool settings
+    public static class Config {
+        public String url;
+        public String user;
+        public String password;
+        public int minIdle = 2;
+        public int maxSize = 10;
+        public long acquireTimeoutMs = 5_000;
+        public int validationTimeoutSec = 2;
+        public long validateIdleAfterMs = 30_000;   // idle connections older than this are pinged before reuse
+        public long maxLifetimeMs = 30 * 60_000;
+        public long leakThresholdMs = 60_000;       // 0 disables leak detection
+        public int leakTraceEvery = 0;              // capture the borrow stack on every Nth borrow; 0 reports the age only
+        public long housekeepingMs = 5_000;
+        public int statementCacheSize = 64;         // per connection; 0 disables statement caching
+        public SqlMetrics sqlMetrics;               // per-statement timings; null disables
+    }
+
+    // Snapshot of pool counters
+    public static class Stats {
+        public int active;
+        public int idle;
+        public int waiting;
+        public long acquired;
+        public long created;
+        public long closed;
+        public long timeouts;
+        public long validationFailures;
+        public long leaks;
+        public long totalWaitNanos;
+        public long maxWaitNanos;
+        public long stmtHits;
+        public long stmtMisses;
+        public long stmtEvictions;
+
+        public double avgWaitMillis() {
+            return acquired == 0 ? 0 : totalWaitNanos / 1e6 / acquired;
+        }
+
+        public double stmtHitRate() {
+            long total = stmtHits + stmtMisses;
+            return total == 0 ? 0 : (double) stmtHits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("active=%d idle=%d waiting=%d acquired=%d created=%d closed=%d timeouts=%d "
+                            + "validationFailures=%d leaks=%d avgWait=%.3fms maxWait=%.3fms stmtHitRate=%.1f%% stmtEvictions=%d",
+                    active, idle, waiting, acquired, created, closed, timeouts,
+                    validationFailures, leaks, avgWaitMillis(), maxWaitNanos / 1e6,
+                    stmtHitRate() * 100, stmtEvictions);
+        }
+    }
+
+    // One physical connection owned by the pool
+    private static class Pooled {
+        final Connection raw;
+        final StatementCache statements;    // null when caching is disabled
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsedAt = createdAt;
+        volatile long borrowedAt;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        Pooled(Connection raw, StatementCache statements) {
+            this.raw = raw;
+            this.statements = statements;
+        }
+    }
+
+    private final Config cfg;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<Pooled> idle = new LinkedBlockingDeque<>();
+    private final Set<Pooled> active = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean shutdown;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger total = new AtomicInteger();    // physical connections, idle or borrowed
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final StatementCache.Counters stmtCounters = new StatementCache.Counters();
+
+    public ConnectionPool(Config cfg) {
+        if (cfg.maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive.");
+        if (cfg.minIdle > cfg.maxSize) throw new IllegalArgumentException("minIdle cannot exceed maxSize.");
+        this.cfg = cfg;
+        this.permits = new Semaphore(cfg.maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bms-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, cfg.housekeepingMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Borrow a connection; closing the returned handle gives it back to the pool
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (shutdown) throw new SQLException("Connection pool is closed.");
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        boolean got;
+        try {
+            got = permits.tryAcquire(cfg.acquireTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection.", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        if (!got) {
+            timeouts.incrementAndGet();
+            throw new SQLTransientConnectionException(
+                    "Timed out after " + cfg.acquireTimeoutMs + "ms waiting for a connection (" + stats() + ")");
+        }
+        try {
+            Pooled p = takeIdleOrCreate();
+            long waited = System.nanoTime() - start;
+            acquired.incrementAndGet();
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            if (cfg.sqlMetrics != null) cfg.sqlMetrics.record("ConnectionPool.acquire", waited);
+            p.borrowedAt = System.currentTimeMillis();
+            p.borrowSite = cfg.leakThresholdMs > 0 && cfg.leakTraceEvery > 0 && acquired.get() % cfg.leakTraceEvery == 0
+                    ? new Throwable("Connection borrowed here") : null;
+            p.leakReported = false;
+            active.add(p);
+            return wrap(p);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pool is bound to a single set of credentials.");
+    }
+
+    private Pooled takeIdleOrCreate() throws SQLException {
+        Pooled p;
+        while ((p = idle.pollFirst()) != null) {
+            if (isUsable(p)) return p;
+            discard(p);
+        }
+        return create();
+    }
+
+    private boolean isUsable(Pooled p) {
+        long now = System.currentTimeMillis();
+        if (now - p.createdAt > cfg.maxLifetimeMs) return false;
+        if (now - p.lastUsedAt < cfg.validateIdleAfterMs) return true;
+        try {
+            if (p.raw.isValid(cfg.validationTimeoutSec)) return true;
+        } catch (SQLException ignored) {
+            // treated as invalid below
+        }
+        validationFailures.incrementAndGet();
+        return false;
+    }
+
+    private Pooled create() throws SQLException {
+        Connection raw = DriverManager.getConnection(cfg.url, cfg.user, cfg.password);
+        Pooled p = new Pooled(raw, cfg.statementCacheSize > 0
+                ? new StatementCache(raw, cfg.statementCacheSize, stmtCounters) : null);
+        created.incrementAndGet();
+        total.incrementAndGet();
+        return p;
+    }
+
+    private void discard(Pooled p) {
+        closed.incrementAndGet();
+        total.decrementAndGet();
+        if (p.statements != null) p.statements.closeAll();
+        try {
+            p.raw.close();
+        } catch (SQLException ignored) {
+            // already broken
+        }
+    }
+
+    // Called when the borrower closes its handle
+    private void release(Pooled p) {
+        active.remove(p);
+        boolean reusable = !shutdown;
+        try {
+            if (reusable && !p.raw.getAutoCommit()) {
+                p.raw.rollback();
+                p.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        p.lastUsedAt = System.currentTimeMillis();
+        p.borrowSite = null;
+        if (reusable) {
+            idle.offerFirst(p); // LIFO keeps a warm working set
+        } else {
+            discard(p);
+        }
+        permits.release();
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            // Retire idle connections past their lifetime
+            for (Pooled p : idle) {
+                if (now - p.createdAt > cfg.maxLifetimeMs && idle.remove(p)) discard(p);
+            }
+            // Top up to minIdle without taking permits from borrowers; total also counts connections
+            // a borrower is still opening, so the pool never holds more than maxSize
+            int topUp = Math.min(cfg.minIdle - idle.size(), cfg.maxSize - total.get());
+            for (int i = 0; i < topUp && !shutdown; i++) {
+                idle.offerLast(create());
+            }
+            // Report connections held longer than the leak threshold
+            if (cfg.leakThresholdMs > 0) {
+                for (Pooled p : active) {
+                    if (!p.leakReported && now - p.borrowedAt > cfg.leakThresholdMs) {
+                        p.leakReported = true;
+                        leaks.incrementAndGet();
+                        System.out.println("Possible connection leak: held for " + (now - p.borrowedAt) + "ms");
+                        Throwable site = p.borrowSite;
+                        if (site != null) site.printStackTrace(System.out);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Connection pool top-up failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Connection wrap(Pooled p) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, new Handle(p));
+    }
+
+    // Per-borrow handle; close() returns the physical connection exactly once
+    private class Handle implements InvocationHandler {
+        private final Pooled p;
+        private boolean closedHandle;
+
+        Handle(Pooled p) { this.p = p; }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "close":
+                    if (!closedHandle) {
+                        closedHandle = true;
+                        release(p);
+                    }
+                    return null;
+                case "isClosed":
+                    return closedHandle || p.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + p.raw + "]";
+                case "prepareStatement":
+                    if (closedHandle) throw new SQLException("Connection handle already closed.");
+                    // generated keys, scrollable cursors, etc. are not cached
+                    PreparedStatement ps = p.statements != null && isPlainPrepare(args)
+                            ? p.statements.prepare((String) args[0], (Connection) proxy)
+                            : (PreparedStatement) invokeRaw(m, args);
+                    return cfg.sqlMetrics == null ? ps : cfg.sqlMetrics.wrap(ps, (String) args[0]);
+                default:
+                    if (closedHandle) throw new SQLException("Connection handle already closed.");
+                    return invokeRaw(m, args);
+            }
+        }
+
+        private Object invokeRaw(Method m, Object[] args) throws Throwable {
+            try {
+                return m.invoke(p.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    // prepareStatement(sql) or the equivalent (sql, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY)
+    private static boolean isPlainPrepare(Object[] args) {
+        if (args.length == 1) return true;
+        return args.length == 3
+                && (Integer) args[1] == ResultSet.TYPE_FORWARD_ONLY
+                && (Integer) args[2] == ResultSet.CONCUR_READ_ONLY;
+    }
+
+    public Stats stats() {
+        Stats s = new Stats();
+        s.active = active.size();
+        s.idle = idle.size();
+        s.waiting = waiting.get();
+        s.acquired = acquired.get();
+        s.created = created.get();
+        s.closed = closed.get();
+        s.timeouts = timeouts.get();
+        s.validationFailures = validationFailures.get();
+        s.leaks = leaks.get();
+        s.totalWaitNanos = totalWaitNanos.get();
+        s.maxWaitNanos = maxWaitNanos.get();
+        s.stmtHits = stmtCounters.hits.sum();
+        s.stmtMisses = stmtCounters.misses.sum();
+        s.stmtEvictions = stmtCounters.evictions.sum();
+        return s;
+    }
+
+    @Override
+    public void close() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        Pooled p;
+        while ((p = idle.pollFirst()) != null) discard(p);
+    }
+
+    // Remaining DataSource plumbing
+    @Override public PrintWriter getLogWriter() { return null; }
+    @Override public void setLogWriter(PrintWriter out) { }
+    @Override public void setLoginTimeout(int seconds) { }
+    @Override public int getLoginTimeout() { return 0; }
+    @Override public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
@@ -2,52 +2,57 @@ package db;
 
 import java.sql.*;
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import db.Models.*;
 
 public class DAOs {
-    // Helper: next IDs
+    // Helper: next IDs (block-reserved from id_sequence, see IdAllocator). Take them before borrowing
+    // the connection that inserts the row: refilling a block borrows one of its own.
     public static class Ids {
-        public static int nextIntId(Connection con, String table, String idCol) throws SQLException {
-            String sql = "SELECT COALESCE(MAX(" + idCol + "),0)+1 as next_id FROM " + table;
-            try (PreparedStatement ps = con.prepareStatement(sql);
-                 ResultSet rs = ps.executeQuery()) {
-                rs.next();
-                return rs.getInt("next_id");
-            }
+        private static final int BLOCK_SIZE = Integer.getInteger("bms.ids.blockSize", 1000);
+        private static final IdAllocator.BlockSource SOURCE = IdAllocator.jdbc(DBConnection.dataSource());
+
+        static final IdAllocator CUSTOMER = new IdAllocator("Customer", BLOCK_SIZE, SOURCE);
+        static final IdAllocator LOGIN = new IdAllocator("Login", BLOCK_SIZE, SOURCE);
+        static final IdAllocator LOAN = new IdAllocator("Loan", BLOCK_SIZE, SOURCE);
+        static final IdAllocator ACCOUNT = new IdAllocator("Account", BLOCK_SIZE, SOURCE);
+
+        public static int nextCustomerId() throws SQLException {
+            return Math.toIntExact(CUSTOMER.next());
         }
 
-        public static long nextAccountNo(Connection con) throws SQLException {
+        public static int nextLoginId() throws SQLException {
+            return Math.toIntExact(LOGIN.next());
+        }
 
-            String sql = "SELECT COALESCE(MAX(account_no), 100000010) + 1 AS next_acc FROM Account";
-            try (PreparedStatement ps = con.prepareStatement(sql);
-                 ResultSet rs = ps.executeQuery()) {
-                rs.next();
-                return rs.getLong("next_acc");
-            }
+        public static int nextLoanId() throws SQLException {
+            return Math.toIntExact(LOAN.next());
         }
 
-        public static int nextTxnNoForAccount(Connection con, long accountNo) throws SQLException {
-            String sql = "SELECT COALESCE(MAX(txn_no),0)+1 AS next_txn FROM Txn WHERE account_no = ?";
-            try (PreparedStatement ps = con.prepareStatement(sql)) {
-                ps.setLong(1, accountNo);
-                try (ResultSet rs = ps.executeQuery()) {
-                    rs.next();
-                    return rs.getInt("next_txn");
-                }
-            }
+        public static long nextAccountNo() throws SQLException {
+            return ACCOUNT.next();
         }
     }
 
     // Customer DAO
     public static class CustomerDAO {
-        public int insertCustomer(Connection con, Customer c) throws SQLException {
+        // customerId from Ids.nextCustomerId()
+        public int insertCustomer(Connection con, int customerId, Customer c) throws SQLException {
             String sql = "INSERT INTO Customer(customer_id,name,email,phone,address,branch_id) VALUES(?,?,?,?,?,?)";
-            int nextId = Ids.nextIntId(con, "Customer", "customer_id");
             try (PreparedStatement ps = con.prepareStatement(sql)) {
-                ps.setInt(1, nextId);
+                ps.setInt(1, customerId);
                 ps.setString(2, c.name);
                 ps.setString(3, c.email);
                 ps.setString(4, c.phone);
@@ -55,7 +60,7 @@ public class DAOs {
                 ps.setInt(6, c.branchId);
                 ps.executeUpdate();
             }
-            return nextId;
+            return customerId;
         }
 
         public Customer findById(Connection con, int customerId) throws SQLException {
@@ -81,8 +86,8 @@ public class DAOs {
 
     // Account DAO
     public static class AccountDAO {
-        public long createAccount(Connection con, int customerId) throws SQLException {
-            long accNo = Ids.nextAccountNo(con);
+        // accNo from Ids.nextAccountNo()
+        public long createAccount(Connection con, long accNo, int customerId) throws SQLException {
             String sql = "INSERT INTO Account(account_no,balance,customer_id) VALUES(?,0.00,?)";
             try (PreparedStatement ps = con.prepareStatement(sql)) {
                 ps.setLong(1, accNo);
@@ -105,8 +110,9 @@ public class DAOs {
             return null;
         }
 
+        // Also advances next_txn_no so the posting's Txn row gets its number without a MAX() read
         public boolean setBalance(Connection con, long accountNo, BigDecimal newBal) throws SQLException {
-            String sql = "UPDATE Account SET balance=? WHERE account_no=?";
+            String sql = "UPDATE Account SET balance=?, next_txn_no = next_txn_no + 1 WHERE account_no=?";
             try (PreparedStatement ps = con.prepareStatement(sql)) {
                 ps.setBigDecimal(1, newBal);
                 ps.setLong(2, accountNo);
@@ -114,6 +120,90 @@ public class DAOs {
             }
         }
 
+        // balance += amount in one statement; false means the account does not exist
+        public boolean credit(Connection con, long accountNo, Money amount) throws SQLException {
+            String sql = "UPDATE Account SET balance = balance + " + Money.PARAM + ", next_txn_no = next_txn_no + 1 WHERE account_no=?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                amount.bind(ps, 1);
+                ps.setLong(2, accountNo);
+                return ps.executeUpdate() == 1;
+            }
+        }
+
+        // balance -= amount only if it covers the amount; false means missing account or insufficient balance
+        public boolean debit(Connection con, long accountNo, Money amount) throws SQLException {
+            String sql = "UPDATE Account SET balance = balance - " + Money.PARAM + ", next_txn_no = next_txn_no + 1 "
+                    + "WHERE account_no=? AND balance >= " + Money.PARAM;
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                amount.bind(ps, 1);
+                ps.setLong(2, accountNo);
+                amount.bind(ps, 3);
+                return ps.executeUpdate() == 1;
+            }
+        }
+
+        // Locks the given rows in ascending account_no order; missing accounts are absent from the map
+        public Map<Long, Account> lockForUpdate(Connection con, long... accountNos) throws SQLException {
+            long[] sorted = accountNos.clone();
+            Arrays.sort(sorted);
+            StringBuilder sql = new StringBuilder("SELECT account_no, balance, customer_id, next_txn_no FROM Account WHERE account_no IN (");
+            for (int i = 0; i < sorted.length; i++) sql.append(i == 0 ? "?" : ",?");
+            sql.append(") ORDER BY account_no FOR UPDATE");
+            Map<Long, Account> locked = new LinkedHashMap<>();
+            try (PreparedStatement ps = con.prepareStatement(sql.toString())) {
+                for (int i = 0; i < sorted.length; i++) ps.setLong(i + 1, sorted[i]);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Account a = new Account();
+                        a.accountNo = rs.getLong(1);
+                        a.balance = rs.getBigDecimal(2);
+                        a.customerId = rs.getInt(3);
+                        a.nextTxnNo = rs.getInt(4);
+                        locked.put(a.accountNo, a);
+                    }
+                }
+            }
+            return locked;
+        }
+
+        // Batched balance += delta, next_txn_no += count for rows already locked by lockForUpdate
+        public void applyDeltas(Connection con, Map<Long, Money> deltas, Map<Long, Integer> txnCounts) throws SQLException {
+            String sql = "UPDATE Account SET balance = balance + " + Money.PARAM + ", next_txn_no = next_txn_no + ? WHERE account_no=?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (Map.Entry<Long, Money> d : deltas.entrySet()) {
+                    d.getValue().bind(ps, 1);
+                    ps.setInt(2, txnCounts.getOrDefault(d.getKey(), 0));
+                    ps.setLong(3, d.getKey());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+
+        // Accounts on any tier but defaultTier; most accounts are on the default, so this stays small
+        public Map<Long, String> tiersExcept(Connection con, String defaultTier) throws SQLException {
+            Map<Long, String> out = new HashMap<>();
+            String sql = "SELECT account_no, tier FROM Account WHERE tier <> ?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setString(1, defaultTier);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.put(rs.getLong(1), rs.getString(2));
+                }
+            }
+            return out;
+        }
+
+        // tier -> {max_count, max_amount in cents}
+        public Map<String, long[]> velocityLimits(Connection con) throws SQLException {
+            Map<String, long[]> out = new HashMap<>();
+            String sql = "SELECT tier, max_count, " + Money.column("max_amount") + " FROM velocity_limit";
+            try (PreparedStatement ps = con.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.put(rs.getString(1), new long[]{rs.getInt(2), rs.getLong(3)});
+            }
+            return out;
+        }
+
         public boolean exists(Connection con, long accountNo) throws SQLException {
             String sql = "SELECT 1 FROM Account WHERE account_no=?";
             try (PreparedStatement ps = con.prepareStatement(sql)) {
@@ -124,6 +214,18 @@ public class DAOs {
             }
         }
 
+        public List<Long> listByCustomer(Connection con, int customerId) throws SQLException {
+            String sql = "SELECT account_no FROM Account WHERE customer_id=? ORDER BY account_no";
+            List<Long> out = new ArrayList<>();
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setInt(1, customerId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(rs.getLong(1));
+                }
+            }
+            return out;
+        }
+
         public boolean deleteByCustomer(Connection con, int customerId) throws SQLException {
             String sql = "DELETE FROM Account WHERE customer_id=?";
             try (PreparedStatement ps = con.prepareStatement(sql)) {
@@ -140,82 +242,241 @@ public class DAOs {
 
     // Txn DAO
     public static class TxnDAO {
-        public void insertTxn(Connection con, long accountNo, String type, BigDecimal amt) throws SQLException {
-            int nextTxn = Ids.nextTxnNoForAccount(con, accountNo);
-            String sql = "INSERT INTO Txn(txn_no, txn_type, amount, account_no) VALUES(?,?,?,?)";
-            try (PreparedStatement ps = con.prepareStatement(sql)) {
-                ps.setInt(1, nextTxn);
-                ps.setString(2, type);
-                ps.setBigDecimal(3, amt);
-                ps.setLong(4, accountNo);
+        // Must follow a balance posting on the same account in the same transaction:
+        // takes the txn_no that posting reserved in Account.next_txn_no
+        public void insertTxn(Connection con, long accountNo, String type, Money amt) throws SQLException {
+            String sql = "INSERT INTO Txn(txn_no, txn_type, amount, account_no) "
+                    + "SELECT next_txn_no - 1, ?, " + Money.PARAM + ", account_no FROM Account WHERE account_no=?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setString(1, type);
+                amt.bind(ps, 2);
+                ps.setLong(3, accountNo);
                 ps.executeUpdate(); // tnx_date defaults to CURRENT_TIMESTAMP
             }
         }
 
+        // Batched insert of rows whose txn_no was already assigned from locked next_txn_no values;
+        // amounts go in as cents, like the balance postings they belong to
+        public void insertTxnBatch(Connection con, List<Txn> rows) throws SQLException {
+            String sql = "INSERT INTO Txn(txn_no, txn_type, amount, account_no) VALUES(?,?," + Money.PARAM + ",?)";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (Txn t : rows) {
+                    ps.setInt(1, t.txnNo);
+                    ps.setString(2, t.txnType);
+                    Money.of(t.amount).bind(ps, 3);
+                    ps.setLong(4, t.accountNo);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+
         public List<Txn> findByAccount(Connection con, long accountNo) throws SQLException {
             String sql = "SELECT txn_no, txn_type, tnx_date, amount, account_no FROM Txn WHERE account_no=? ORDER BY tnx_date DESC, txn_no DESC";
             List<Txn> list = new ArrayList<>();
             try (PreparedStatement ps = con.prepareStatement(sql)) {
                 ps.setLong(1, accountNo);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) list.add(readTxn(rs));
+                }
+            }
+            return list;
+        }
+
+        // Newest-first page; pass the previous page's next cursor (or null) to continue.
+        // Seeks through idx_txn_account_date instead of OFFSET-scanning earlier pages.
+        public TxnPage findPage(Connection con, long accountNo, TxnCursor after, int pageSize) throws SQLException {
+            String sql = after == null
+                    ? "SELECT txn_no, txn_type, tnx_date, amount, account_no FROM Txn WHERE account_no=? "
+                    + "ORDER BY tnx_date DESC, txn_no DESC LIMIT ?"
+                    : "SELECT txn_no, txn_type, tnx_date, amount, account_no FROM Txn WHERE account_no=? "
+                    + "AND (tnx_date < ? OR (tnx_date = ? AND txn_no < ?)) ORDER BY tnx_date DESC, txn_no DESC LIMIT ?";
+            TxnPage page = new TxnPage();
+            page.rows = new ArrayList<>(pageSize);
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                int i = 1;
+                ps.setLong(i++, accountNo);
+                if (after != null) {
+                    Timestamp ts = Timestamp.valueOf(after.tnxDate);
+                    ps.setTimestamp(i++, ts);
+                    ps.setTimestamp(i++, ts);
+                    ps.setInt(i++, after.txnNo);
+                }
+                ps.setInt(i, pageSize + 1); // one extra row tells us whether another page exists
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) {
-                        Txn t = new Txn();
-                        t.txnNo = rs.getInt(1);
-                        t.txnType = rs.getString(2);
-                        Timestamp ts = rs.getTimestamp(3);
-                        t.tnxDate = ts != null ? ts.toLocalDateTime() : null;
-                        t.amount = rs.getBigDecimal(4);
-                        t.accountNo = rs.getLong(5);
-                        list.add(t);
+                        if (page.rows.size() == pageSize) {
+                            Txn last = page.rows.get(pageSize - 1);
+                            page.next = new TxnCursor();
+                            page.next.tnxDate = last.tnxDate;
+                            page.next.txnNo = last.txnNo;
+                            break;
+                        }
+                        page.rows.add(readTxn(rs));
                     }
                 }
             }
-            return list;
+            return page;
+        }
+
+        // Newest-first, forward-only; rows are handed to sink as they arrive, fetchSize at a time
+        public void streamByAccount(Connection con, long accountNo, int fetchSize, Consumer<Txn> sink) throws SQLException {
+            String sql = "SELECT txn_no, txn_type, tnx_date, amount, account_no FROM Txn WHERE account_no=? ORDER BY tnx_date DESC, txn_no DESC";
+            try (PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(fetchSize);
+                ps.setLong(1, accountNo);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) sink.accept(readTxn(rs));
+                }
+            }
+        }
+
+        // Withdrawals and outgoing transfers since 'since', oldest first
+        public void debitsSince(Connection con, LocalDateTime since, int fetchSize, Consumer<Txn> sink) throws SQLException {
+            String sql = "SELECT txn_no, txn_type, tnx_date, amount, account_no FROM Txn "
+                    + "WHERE tnx_date >= ? AND txn_type IN ('Withdraw','Transfer') ORDER BY tnx_date";
+            try (PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(fetchSize);
+                ps.setTimestamp(1, Timestamp.valueOf(since));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) sink.accept(readTxn(rs));
+                }
+            }
+        }
+
+        // Lowest txn_no still in Txn for the account, Integer.MAX_VALUE when it has none; archived
+        // rows below it are the rest of the history
+        public int lowestTxnNo(Connection con, long accountNo) throws SQLException {
+            String sql = "SELECT MIN(txn_no) FROM Txn WHERE account_no=?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setLong(1, accountNo);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    int min = rs.getInt(1);
+                    return rs.wasNull() ? Integer.MAX_VALUE : min;
+                }
+            }
+        }
+
+        // Only accounts with a snapshot watermark can have rows to archive
+        public List<Long> archiveCandidates(Connection con, long after, int limit) throws SQLException {
+            List<Long> out = new ArrayList<>();
+            String sql = "SELECT account_no FROM snapshot_watermark WHERE account_no > ? ORDER BY account_no LIMIT ?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setLong(1, after);
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(rs.getLong(1));
+                }
+            }
+            return out;
+        }
+
+        // Rows dated before the horizon and already folded into balance_snapshot, newest first per account
+        public List<Txn> archivable(Connection con, List<Long> accounts, LocalDateTime horizon) throws SQLException {
+            List<Txn> out = new ArrayList<>();
+            String sql = "SELECT t.txn_no, t.txn_type, t.tnx_date, t.amount, t.account_no FROM Txn t "
+                    + "JOIN snapshot_watermark w ON w.account_no = t.account_no "
+                    + "WHERE t.account_no IN (" + placeholders(accounts.size()) + ") AND t.tnx_date < ? AND t.txn_no <= w.last_txn_no "
+                    + "ORDER BY t.account_no, t.txn_no DESC";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                int i = 1;
+                for (long acc : accounts) ps.setLong(i++, acc);
+                ps.setTimestamp(i, Timestamp.valueOf(horizon));
+                ps.setFetchSize(1_000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(readTxn(rs));
+                }
+            }
+            return out;
+        }
+
+        // ranges: {account_no, txn_no above, txn_no up to}; same predicate as archivable()
+        public int deleteArchived(Connection con, List<long[]> ranges, LocalDateTime horizon) throws SQLException {
+            String sql = "DELETE FROM Txn WHERE account_no=? AND txn_no > ? AND txn_no <= ? AND tnx_date < ?";
+            int deleted = 0;
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                Timestamp ts = Timestamp.valueOf(horizon);
+                for (long[] r : ranges) {
+                    ps.setLong(1, r[0]);
+                    ps.setInt(2, (int) r[1]);
+                    ps.setInt(3, (int) r[2]);
+                    ps.setTimestamp(4, ts);
+                    ps.addBatch();
+                }
+                for (int n : ps.executeBatch()) deleted += Math.max(n, 0);
+            }
+            return deleted;
+        }
+
+        private static Txn readTxn(ResultSet rs) throws SQLException {
+            Txn t = new Txn();
+            t.txnNo = rs.getInt(1);
+            t.txnType = rs.getString(2);
+            Timestamp ts = rs.getTimestamp(3);
+            t.tnxDate = ts != null ? ts.toLocalDateTime() : null;
+            t.amount = rs.getBigDecimal(4);
+            t.accountNo = rs.getLong(5);
+            return t;
         }
     }
 
     // Login DAO
     public static class LoginDAO {
-        public int createLogin(Connection con, int customerId, String username, String password) throws SQLException {
-            int nextId = Ids.nextIntId(con, "Login", "login_id");
+        // loginId from Ids.nextLoginId()
+        public int createLogin(Connection con, int loginId, int customerId, String username, String password) throws SQLException {
             String sql = "INSERT INTO Login(login_id,username,password,customer_id) VALUES(?,?,?,?)";
             try (PreparedStatement ps = con.prepareStatement(sql)) {
-                ps.setInt(1, nextId);
+                ps.setInt(1, loginId);
                 ps.setString(2, username);
                 ps.setString(3, password);
                 ps.setInt(4, customerId);
                 ps.executeUpdate();
             }
-            return nextId;
+            return loginId;
         }
 
-        public Integer auth(Connection con, String username, String password) throws SQLException {
-            String sql = "SELECT customer_id FROM Login WHERE username=? AND password=?";
+        // Point lookup on the unique username index; the password is checked by the caller
+        public Login findByUsername(Connection con, String username) throws SQLException {
+            String sql = "SELECT login_id, username, password, customer_id FROM Login WHERE username=?";
             try (PreparedStatement ps = con.prepareStatement(sql)) {
                 ps.setString(1, username);
-                ps.setString(2, password);
                 try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) return rs.getInt(1);
+                    if (!rs.next()) return null;
+                    Login l = new Login();
+                    l.loginId = rs.getInt(1);
+                    l.username = rs.getString(2);
+                    l.password = rs.getString(3);
+                    l.customerId = rs.getInt(4);
+                    return l;
                 }
             }
-            return null;
+        }
+
+        public void updatePassword(Connection con, int loginId, String passwordHash) throws SQLException {
+            String sql = "UPDATE Login SET password=? WHERE login_id=?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setString(1, passwordHash);
+                ps.setInt(2, loginId);
+                ps.executeUpdate();
+            }
         }
     }
 
     //  Loan DAO
     public static class LoanDAO {
-        public int apply(Connection con, int customerId, String loanType, BigDecimal amount) throws SQLException {
-            int nextId = Ids.nextIntId(con, "Loan", "loan_id");
+        // loanId from Ids.nextLoanId()
+        public int apply(Connection con, int loanId, int customerId, String loanType, BigDecimal amount) throws SQLException {
             String sql = "INSERT INTO Loan(loan_id, loan_type, loan_amount, status, customer_id) VALUES(?,?,?,?,?)";
             try (PreparedStatement ps = con.prepareStatement(sql)) {
-                ps.setInt(1, nextId);
+                ps.setInt(1, loanId);
                 ps.setString(2, loanType);
                 ps.setBigDecimal(3, amount);
                 ps.setString(4, "Pending");
                 ps.setInt(5, customerId);
                 ps.executeUpdate();
             }
-            return nextId;
+            return loanId;
         }
 
         public List<Loan> listByCustomer(Connection con, int customerId) throws SQLException {
@@ -237,6 +498,216 @@ public class DAOs {
             }
             return list;
         }
+
+        // Next page of Pending loans after loan_id 'after'
+        public List<Loan> pendingPage(Connection con, int after, int limit) throws SQLException {
+            List<Loan> list = new ArrayList<>();
+            String sql = "SELECT loan_id, loan_type, loan_amount, status, customer_id FROM Loan "
+                    + "WHERE status='Pending' AND loan_id>? ORDER BY loan_id LIMIT ?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setInt(1, after);
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Loan l = new Loan();
+                        l.loanId = rs.getInt(1);
+                        l.loanType = rs.getString(2);
+                        l.loanAmount = rs.getBigDecimal(3);
+                        l.status = rs.getString(4);
+                        l.customerId = rs.getInt(5);
+                        list.add(l);
+                    }
+                }
+            }
+            return list;
+        }
+
+        // Sum of Approved loans per customer; customers without any are absent
+        public Map<Integer, BigDecimal> approvedExposure(Connection con, List<Integer> customerIds) throws SQLException {
+            Map<Integer, BigDecimal> out = new LinkedHashMap<>();
+            String sql = "SELECT customer_id, SUM(loan_amount) FROM Loan WHERE status='Approved' AND customer_id IN ("
+                    + placeholders(customerIds.size()) + ") GROUP BY customer_id";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < customerIds.size(); i++) ps.setInt(i + 1, customerIds.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.put(rs.getInt(1), rs.getBigDecimal(2));
+                }
+            }
+            return out;
+        }
+
+        // Per customer {current total balance, lowest total balance since 'since'}. The low is summed from
+        // each account's lowest daily closing in balance_snapshot, capped at its current balance; customers
+        // without accounts are absent. Snapshots exist only for days with activity, so the latest one
+        // before 'since' is included too: its closing is the balance carried into the window.
+        public Map<Integer, BigDecimal[]> balanceProfiles(Connection con, List<Integer> customerIds, LocalDate since) throws SQLException {
+            Map<Integer, BigDecimal[]> out = new LinkedHashMap<>();
+            String sql = "SELECT customer_id, SUM(balance), SUM(low) FROM ("
+                    + "SELECT a.customer_id, a.balance, LEAST(a.balance, COALESCE(MIN(s.closing_balance), a.balance)) AS low "
+                    + "FROM Account a LEFT JOIN balance_snapshot s ON s.account_no = a.account_no AND s.day >= COALESCE("
+                    + "(SELECT MAX(p.day) FROM balance_snapshot p WHERE p.account_no = a.account_no AND p.day < ?), ?) "
+                    + "WHERE a.customer_id IN (" + placeholders(customerIds.size()) + ") "
+                    + "GROUP BY a.customer_id, a.account_no, a.balance) x GROUP BY customer_id";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setDate(1, Date.valueOf(since));
+                ps.setDate(2, Date.valueOf(since));
+                for (int i = 0; i < customerIds.size(); i++) ps.setInt(i + 3, customerIds.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.put(rs.getInt(1), new BigDecimal[]{rs.getBigDecimal(2), rs.getBigDecimal(3)});
+                }
+            }
+            return out;
+        }
+
+        // Only rows still Pending change, so a decision made by hand in the meantime wins; returns the
+        // loan_ids updated. Approval starts the repayment schedule today.
+        public Set<Integer> decide(Connection con, Map<Integer, String> statusByLoan) throws SQLException {
+            String sql = "UPDATE Loan SET status=?, start_date = CASE WHEN ?='Approved' THEN CURRENT_DATE ELSE start_date END "
+                    + "WHERE loan_id=? AND status='Pending'";
+            List<Integer> ids = new ArrayList<>(statusByLoan.keySet());
+            Set<Integer> updated = new HashSet<>();
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (Map.Entry<Integer, String> e : statusByLoan.entrySet()) {
+                    ps.setString(1, e.getValue());
+                    ps.setString(2, e.getValue());
+                    ps.setInt(3, e.getKey());
+                    ps.addBatch();
+                }
+                int[] counts = ps.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO) updated.add(ids.get(i));
+                }
+            }
+            return updated;
+        }
+
+        private static final String TERMS = "SELECT loan_id, customer_id, loan_type, status, " + Money.column("loan_amount")
+                + ", annual_rate * 100, tenure_months, start_date, priced_rate * 100, priced_from FROM Loan ";
+
+        // null when the loan does not exist
+        public LoanTerms terms(Connection con, int loanId) throws SQLException {
+            try (PreparedStatement ps = con.prepareStatement(TERMS + "WHERE loan_id=?")) {
+                ps.setInt(1, loanId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? readTerms(rs) : null;
+                }
+            }
+        }
+
+        // Next page of Approved loans after loan_id 'after'
+        public List<LoanTerms> approvedPage(Connection con, int after, int limit) throws SQLException {
+            List<LoanTerms> list = new ArrayList<>();
+            try (PreparedStatement ps = con.prepareStatement(TERMS + "WHERE status='Approved' AND loan_id>? ORDER BY loan_id LIMIT ?")) {
+                ps.setInt(1, after);
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) list.add(readTerms(rs));
+                }
+            }
+            return list;
+        }
+
+        private LoanTerms readTerms(ResultSet rs) throws SQLException {
+            LoanTerms t = new LoanTerms();
+            t.loanId = rs.getInt(1);
+            t.customerId = rs.getInt(2);
+            t.loanType = rs.getString(3);
+            t.status = rs.getString(4);
+            t.principalCents = rs.getLong(5);
+            int bp = rs.getInt(6);
+            t.fixedRateBp = rs.wasNull() ? -1 : bp;
+            t.tenureMonths = rs.getInt(7);
+            Date start = rs.getDate(8);
+            t.startDate = start == null ? null : start.toLocalDate();
+            bp = rs.getInt(9);
+            t.pricedRateBp = rs.wasNull() ? -1 : bp;
+            t.pricedFrom = rs.getInt(10);
+            return t;
+        }
+
+        // Approved before start_date existed; their schedules start today
+        public int backfillStartDates(Connection con) throws SQLException {
+            try (PreparedStatement ps = con.prepareStatement(
+                    "UPDATE Loan SET start_date=CURRENT_DATE WHERE status='Approved' AND start_date IS NULL")) {
+                return ps.executeUpdate();
+            }
+        }
+
+        public void saveEmis(Connection con, Map<Integer, Money> emiByLoan) throws SQLException {
+            String sql = "UPDATE Loan SET emi = " + Money.PARAM + " WHERE loan_id=?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (Map.Entry<Integer, Money> e : emiByLoan.entrySet()) {
+                    e.getValue().bind(ps, 1);
+                    ps.setInt(2, e.getKey());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+
+        // Rate segments per loan_id, each {from_installment, annual rate in basis points}, in order
+        public Map<Integer, List<int[]>> repricings(Connection con, List<Integer> loanIds) throws SQLException {
+            Map<Integer, List<int[]>> out = new LinkedHashMap<>();
+            String sql = "SELECT loan_id, from_installment, annual_rate * 100 FROM loan_reprice WHERE loan_id IN ("
+                    + placeholders(loanIds.size()) + ") ORDER BY loan_id, from_installment";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < loanIds.size(); i++) ps.setInt(i + 1, loanIds.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.computeIfAbsent(rs.getInt(1), k -> new ArrayList<>()).add(new int[]{rs.getInt(2), rs.getInt(3)});
+                }
+            }
+            return out;
+        }
+
+        // New last segment per loan_id, {from_installment, rate bp}: segments from that installment on are
+        // replaced, and Loan.priced_rate/priced_from follow so cached schedules notice
+        public void reprice(Connection con, Map<Integer, int[]> segmentByLoan) throws SQLException {
+            try (PreparedStatement del = con.prepareStatement("DELETE FROM loan_reprice WHERE loan_id=? AND from_installment>=?");
+                 PreparedStatement ins = con.prepareStatement(
+                         "INSERT INTO loan_reprice(loan_id, from_installment, annual_rate) VALUES(?,?,? * 0.01)");
+                 PreparedStatement upd = con.prepareStatement("UPDATE Loan SET priced_rate = ? * 0.01, priced_from=? WHERE loan_id=?")) {
+                for (Map.Entry<Integer, int[]> e : segmentByLoan.entrySet()) {
+                    int[] seg = e.getValue();
+                    del.setInt(1, e.getKey());
+                    del.setInt(2, seg[0]);
+                    del.addBatch();
+                    ins.setInt(1, e.getKey());
+                    ins.setInt(2, seg[0]);
+                    ins.setInt(3, seg[1]);
+                    ins.addBatch();
+                    upd.setInt(1, seg[1]);
+                    upd.setInt(2, seg[0]);
+                    upd.setInt(3, e.getKey());
+                    upd.addBatch();
+                }
+                del.executeBatch();
+                ins.executeBatch();
+                upd.executeBatch();
+            }
+        }
+
+        // loan_rate keyed by product, annual rate in basis points
+        public Map<String, Integer> rates(Connection con) throws SQLException {
+            Map<String, Integer> out = new LinkedHashMap<>();
+            try (PreparedStatement ps = con.prepareStatement("SELECT loan_type, annual_rate * 100 FROM loan_rate");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.put(rs.getString(1), rs.getInt(2));
+            }
+            return out;
+        }
+
+        public void setRate(Connection con, String product, BigDecimal annualRate) throws SQLException {
+            try (PreparedStatement ps = con.prepareStatement("UPDATE loan_rate SET annual_rate=? WHERE loan_type=?")) {
+                ps.setBigDecimal(1, annualRate);
+                ps.setString(2, product);
+                if (ps.executeUpdate() == 1) return;
+            }
+            try (PreparedStatement ps = con.prepareStatement("INSERT INTO loan_rate(annual_rate, loan_type) VALUES(?,?)")) {
+                ps.setBigDecimal(1, annualRate);
+                ps.setString(2, product);
+                ps.executeUpdate();
+            }
+        }
     }
 
     // Employee DAO
@@ -258,4 +729,435 @@ public class DAOs {
             return list;
         }
     }
+
+    // Branch DAO
+    public static class BranchDAO {
+        public List<Branch> listAll(Connection con) throws SQLException {
+            List<Branch> list = new ArrayList<>();
+            String sql = "SELECT branch_id, branch_name, branch_address FROM Branch ORDER BY branch_id";
+            try (PreparedStatement ps = con.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Branch b = new Branch();
+                    b.branchId = rs.getInt(1);
+                    b.branchName = rs.getString(2);
+                    b.branchAddress = rs.getString(3);
+                    list.add(b);
+                }
+            }
+            return list;
+        }
+    }
+
+    // Interest accrual DAO (set-based, one account range at a time)
+    public static class InterestDAO {
+        // Range boundaries: every chunkSize-th account_no, streamed so millions of keys are never held at once
+        public List<long[]> planRanges(Connection con, int chunkSize) throws SQLException {
+            List<long[]> ranges = new ArrayList<>();
+            String sql = "SELECT account_no FROM Account ORDER BY account_no";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setFetchSize(10_000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    long start = 0, last = 0;
+                    int n = 0;
+                    while (rs.next()) {
+                        last = rs.getLong(1);
+                        if (n++ == 0) start = last;
+                        if (n == chunkSize) {
+                            ranges.add(new long[]{start, last});
+                            n = 0;
+                        }
+                    }
+                    if (n > 0) ranges.add(new long[]{start, last});
+                }
+            }
+            return ranges;
+        }
+
+        public void saveRanges(Connection con, LocalDate runDate, List<long[]> ranges) throws SQLException {
+            String sql = "INSERT INTO interest_range(run_date, range_start, range_end) VALUES(?,?,?)";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                int pending = 0;
+                for (long[] r : ranges) {
+                    ps.setDate(1, Date.valueOf(runDate));
+                    ps.setLong(2, r[0]);
+                    ps.setLong(3, r[1]);
+                    ps.addBatch();
+                    if (++pending == 1_000) {
+                        ps.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) ps.executeBatch();
+            }
+        }
+
+        public int countRanges(Connection con, LocalDate runDate) throws SQLException {
+            String sql = "SELECT COUNT(*) FROM interest_range WHERE run_date=?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setDate(1, Date.valueOf(runDate));
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    return rs.getInt(1);
+                }
+            }
+        }
+
+        public List<long[]> pendingRanges(Connection con, LocalDate runDate) throws SQLException {
+            List<long[]> ranges = new ArrayList<>();
+            String sql = "SELECT range_start, range_end FROM interest_range WHERE run_date=? AND done=FALSE ORDER BY range_start";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setDate(1, Date.valueOf(runDate));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) ranges.add(new long[]{rs.getLong(1), rs.getLong(2)});
+                }
+            }
+            return ranges;
+        }
+
+        // Locks the range, writes one 'Interest' Txn per earning account, credits it and marks the range
+        // done, all in the caller's transaction. Returns {accounts, interest in cents}; {0, 0} when the
+        // range is already done, e.g. a second run of the same date got there first.
+        public long[] accrueRange(Connection con, LocalDate runDate, long start, long end, BigDecimal dailyRate) throws SQLException {
+            String claim = "SELECT done FROM interest_range WHERE run_date=? AND range_start=? FOR UPDATE";
+            try (PreparedStatement ps = con.prepareStatement(claim)) {
+                ps.setDate(1, Date.valueOf(runDate));
+                ps.setLong(2, start);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) throw new SQLException("No interest range " + runDate + "/" + start + ".");
+                    if (rs.getBoolean(1)) return new long[]{0, 0};
+                }
+            }
+            String lock = "SELECT COUNT(*) FROM Account WHERE account_no BETWEEN ? AND ? FOR UPDATE";
+            try (PreparedStatement ps = con.prepareStatement(lock)) {
+                ps.setLong(1, start);
+                ps.setLong(2, end);
+                ps.executeQuery().close();
+            }
+            String earned = "ROUND(balance * ?, 2)";
+            long accounts;
+            BigDecimal interest;
+            String sum = "SELECT COUNT(*), COALESCE(SUM(" + earned + "), 0) FROM Account "
+                    + "WHERE account_no BETWEEN ? AND ? AND " + earned + " > 0";
+            try (PreparedStatement ps = con.prepareStatement(sum)) {
+                ps.setBigDecimal(1, dailyRate);
+                ps.setLong(2, start);
+                ps.setLong(3, end);
+                ps.setBigDecimal(4, dailyRate);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    accounts = rs.getLong(1);
+                    interest = rs.getBigDecimal(2);
+                }
+            }
+            if (accounts > 0) {
+                String txns = "INSERT INTO Txn(txn_no, txn_type, amount, account_no) "
+                        + "SELECT next_txn_no, 'Interest', " + earned + ", account_no FROM Account "
+                        + "WHERE account_no BETWEEN ? AND ? AND " + earned + " > 0";
+                try (PreparedStatement ps = con.prepareStatement(txns)) {
+                    ps.setBigDecimal(1, dailyRate);
+                    ps.setLong(2, start);
+                    ps.setLong(3, end);
+                    ps.setBigDecimal(4, dailyRate);
+                    ps.executeUpdate();
+                }
+                String credit = "UPDATE Account SET balance = balance + " + earned + ", next_txn_no = next_txn_no + 1 "
+                        + "WHERE account_no BETWEEN ? AND ? AND " + earned + " > 0";
+                try (PreparedStatement ps = con.prepareStatement(credit)) {
+                    ps.setBigDecimal(1, dailyRate);
+                    ps.setLong(2, start);
+                    ps.setLong(3, end);
+                    ps.setBigDecimal(4, dailyRate);
+                    ps.executeUpdate();
+                }
+            }
+            String done = "UPDATE interest_range SET done=TRUE, accounts=?, interest=? WHERE run_date=? AND range_start=?";
+            try (PreparedStatement ps = con.prepareStatement(done)) {
+                ps.setLong(1, accounts);
+                ps.setBigDecimal(2, interest);
+                ps.setDate(3, Date.valueOf(runDate));
+                ps.setLong(4, start);
+                ps.executeUpdate();
+            }
+            return new long[]{accounts, interest.movePointRight(2).longValueExact()};
+        }
+    }
+
+    public static class SnapshotDAO {
+        // Txn types that add to the balance; everything else is a debit of the account it is booked on
+        static boolean isCredit(String txnType) {
+            return "Deposit".equals(txnType) || "Interest".equals(txnType);
+        }
+
+        private static final String SIGNED_AMOUNT = "CASE WHEN txn_type IN ('Deposit','Interest') THEN amount ELSE -amount END";
+
+        // Accounts whose Txn rows are not all folded into balance_snapshot yet, in account_no order after 'after'
+        public List<Long> accountsBehind(Connection con, long after, int limit) throws SQLException {
+            List<Long> out = new ArrayList<>();
+            String sql = "SELECT a.account_no FROM Account a LEFT JOIN snapshot_watermark w ON w.account_no = a.account_no "
+                    + "WHERE a.account_no > ? AND a.next_txn_no - 1 > COALESCE(w.last_txn_no, 0) "
+                    + "ORDER BY a.account_no LIMIT ?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setLong(1, after);
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(rs.getLong(1));
+                }
+            }
+            return out;
+        }
+
+        public Map<Long, BigDecimal> balances(Connection con, List<Long> accounts) throws SQLException {
+            Map<Long, BigDecimal> out = new LinkedHashMap<>();
+            String sql = "SELECT account_no, balance FROM Account WHERE account_no IN (" + placeholders(accounts.size()) + ")";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < accounts.size(); i++) ps.setLong(i + 1, accounts.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.put(rs.getLong(1), rs.getBigDecimal(2));
+                }
+            }
+            return out;
+        }
+
+        // Last snapshot day per account that already has a watermark. The watermark rows are locked (in
+        // account order) until the caller commits, so two passes never fold the same rows.
+        public Map<Long, LocalDate> lockLastDays(Connection con, List<Long> accounts) throws SQLException {
+            Map<Long, LocalDate> out = new LinkedHashMap<>();
+            String sql = "SELECT account_no, last_day FROM snapshot_watermark WHERE account_no IN (" + placeholders(accounts.size())
+                    + ") ORDER BY account_no FOR UPDATE";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < accounts.size(); i++) ps.setLong(i + 1, accounts.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.put(rs.getLong(1), rs.getDate(2).toLocalDate());
+                }
+            }
+            return out;
+        }
+
+        // Rows past each account's watermark, oldest first per account
+        public List<Txn> rowsPastWatermark(Connection con, List<Long> accounts) throws SQLException {
+            List<Txn> out = new ArrayList<>();
+            String sql = "SELECT t.txn_no, t.txn_type, t.tnx_date, t.amount, t.account_no FROM Txn t "
+                    + "LEFT JOIN snapshot_watermark w ON w.account_no = t.account_no "
+                    + "WHERE t.account_no IN (" + placeholders(accounts.size()) + ") AND t.txn_no > COALESCE(w.last_txn_no, 0) "
+                    + "ORDER BY t.account_no, t.txn_no";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < accounts.size(); i++) ps.setLong(i + 1, accounts.get(i));
+                ps.setFetchSize(1_000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Txn t = new Txn();
+                        t.txnNo = rs.getInt(1);
+                        t.txnType = rs.getString(2);
+                        t.tnxDate = rs.getTimestamp(3).toLocalDateTime();
+                        t.amount = rs.getBigDecimal(4);
+                        t.accountNo = rs.getLong(5);
+                        out.add(t);
+                    }
+                }
+            }
+            return out;
+        }
+
+        // Adds day totals to rows that already exist and inserts the rest; closing balances are replaced
+        public void saveSnapshots(Connection con, List<BalanceSnapshot> merge, List<BalanceSnapshot> insert) throws SQLException {
+            if (!merge.isEmpty()) {
+                String sql = "UPDATE balance_snapshot SET closing_balance=?, credits=credits+?, debits=debits+?, txn_count=txn_count+? "
+                        + "WHERE account_no=? AND day=?";
+                try (PreparedStatement ps = con.prepareStatement(sql)) {
+                    for (BalanceSnapshot b : merge) {
+                        ps.setBigDecimal(1, b.closingBalance);
+                        ps.setBigDecimal(2, b.credits);
+                        ps.setBigDecimal(3, b.debits);
+                        ps.setInt(4, b.txnCount);
+                        ps.setLong(5, b.accountNo);
+                        ps.setDate(6, Date.valueOf(b.day));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            if (!insert.isEmpty()) {
+                String sql = "INSERT INTO balance_snapshot(account_no, day, closing_balance, credits, debits, txn_count) VALUES(?,?,?,?,?,?)";
+                try (PreparedStatement ps = con.prepareStatement(sql)) {
+                    for (BalanceSnapshot b : insert) {
+                        ps.setLong(1, b.accountNo);
+                        ps.setDate(2, Date.valueOf(b.day));
+                        ps.setBigDecimal(3, b.closingBalance);
+                        ps.setBigDecimal(4, b.credits);
+                        ps.setBigDecimal(5, b.debits);
+                        ps.setInt(6, b.txnCount);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+        }
+
+        // One entry per account: the newest row folded in; accounts in 'existing' already have a watermark row
+        public void advanceWatermarks(Connection con, List<Txn> lastRows, Set<Long> existing) throws SQLException {
+            String update = "UPDATE snapshot_watermark SET last_txn_no=?, last_day=? WHERE account_no=?";
+            String insert = "INSERT INTO snapshot_watermark(last_txn_no, last_day, account_no) VALUES(?,?,?)";
+            try (PreparedStatement up = con.prepareStatement(update);
+                 PreparedStatement in = con.prepareStatement(insert)) {
+                boolean ups = false, ins = false;
+                for (Txn t : lastRows) {
+                    PreparedStatement ps = existing.contains(t.accountNo) ? up : in;
+                    ps.setInt(1, t.txnNo);
+                    ps.setDate(2, Date.valueOf(t.tnxDate.toLocalDate()));
+                    ps.setLong(3, t.accountNo);
+                    ps.addBatch();
+                    if (ps == up) ups = true; else ins = true;
+                }
+                if (ups) up.executeBatch();
+                if (ins) in.executeBatch();
+            }
+        }
+
+        // Nearest snapshot at or before day; null if the account has none
+        public BalanceSnapshot latestOnOrBefore(Connection con, long accountNo, LocalDate day) throws SQLException {
+            String sql = "SELECT account_no, day, closing_balance, credits, debits, txn_count FROM balance_snapshot "
+                    + "WHERE account_no=? AND day<=? ORDER BY day DESC LIMIT 1";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setLong(1, accountNo);
+                ps.setDate(2, Date.valueOf(day));
+                return oneSnapshot(ps);
+            }
+        }
+
+        public BalanceSnapshot earliest(Connection con, long accountNo) throws SQLException {
+            String sql = "SELECT account_no, day, closing_balance, credits, debits, txn_count FROM balance_snapshot "
+                    + "WHERE account_no=? ORDER BY day LIMIT 1";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setLong(1, accountNo);
+                return oneSnapshot(ps);
+            }
+        }
+
+        private BalanceSnapshot oneSnapshot(PreparedStatement ps) throws SQLException {
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                BalanceSnapshot b = new BalanceSnapshot();
+                b.accountNo = rs.getLong(1);
+                b.day = rs.getDate(2).toLocalDate();
+                b.closingBalance = rs.getBigDecimal(3);
+                b.credits = rs.getBigDecimal(4);
+                b.debits = rs.getBigDecimal(5);
+                b.txnCount = rs.getInt(6);
+                return b;
+            }
+        }
+
+        // 0 when the account has never been snapshotted
+        public int watermark(Connection con, long accountNo) throws SQLException {
+            String sql = "SELECT last_txn_no FROM snapshot_watermark WHERE account_no=?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setLong(1, accountNo);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        }
+
+        // Signed sum of rows after txn_no 'afterTxnNo' dated before 'before' (null: no date bound)
+        public BigDecimal netAfter(Connection con, long accountNo, int afterTxnNo, LocalDate before) throws SQLException {
+            String sql = "SELECT COALESCE(SUM(" + SIGNED_AMOUNT + "), 0) FROM Txn WHERE account_no=? AND txn_no>?"
+                    + (before == null ? "" : " AND tnx_date<?");
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setLong(1, accountNo);
+                ps.setInt(2, afterTxnNo);
+                if (before != null) ps.setTimestamp(3, Timestamp.valueOf(before.atStartOfDay()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    return rs.getBigDecimal(1);
+                }
+            }
+        }
+    }
+
+    // Outbox DAO
+    public static class OutboxDAO {
+        private static final String INSERT = "INSERT INTO outbox(event_type, account_no, customer_id, amount, peer_account, ref_id) "
+                + "VALUES(?,?,?," + Money.PARAM + ",?,?)";
+
+        // In the caller's transaction, after the rows it describes are locked or written
+        public void add(Connection con, OutboxEvent e) throws SQLException {
+            try (PreparedStatement ps = con.prepareStatement(INSERT)) {
+                bind(ps, e);
+                ps.executeUpdate();
+            }
+        }
+
+        public void addBatch(Connection con, List<OutboxEvent> events) throws SQLException {
+            if (events.isEmpty()) return;
+            try (PreparedStatement ps = con.prepareStatement(INSERT)) {
+                for (OutboxEvent e : events) {
+                    bind(ps, e);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+
+        private static void bind(PreparedStatement ps, OutboxEvent e) throws SQLException {
+            ps.setString(1, e.eventType);
+            if (e.accountNo != 0) ps.setLong(2, e.accountNo); else ps.setNull(2, Types.BIGINT);
+            if (e.customerId != 0) ps.setInt(3, e.customerId); else ps.setNull(3, Types.INTEGER);
+            if (e.amountCents != 0) ps.setLong(4, e.amountCents); else ps.setNull(4, Types.BIGINT);
+            if (e.peerAccount != 0) ps.setLong(5, e.peerAccount); else ps.setNull(5, Types.BIGINT);
+            if (e.refId != 0) ps.setInt(6, e.refId); else ps.setNull(6, Types.INTEGER);
+        }
+
+        // Oldest undelivered events, skipping those parked at maxAttempts. Delivered rows are deleted rather
+        // than tracked with a high-water mark, so an event whose transaction commits after a higher event_id
+        // was read is not skipped.
+        public List<OutboxEvent> head(Connection con, int limit, int maxAttempts) throws SQLException {
+            List<OutboxEvent> out = new ArrayList<>();
+            String sql = "SELECT event_id, event_type, account_no, customer_id, " + Money.column("amount")
+                    + ", peer_account, ref_id, created_at, attempts FROM outbox WHERE attempts<? ORDER BY event_id LIMIT ?";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setInt(1, maxAttempts);
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        OutboxEvent e = new OutboxEvent();
+                        e.eventId = rs.getLong(1);
+                        e.eventType = rs.getString(2);
+                        e.accountNo = rs.getLong(3);
+                        e.customerId = rs.getInt(4);
+                        e.amountCents = rs.getLong(5);
+                        e.peerAccount = rs.getLong(6);
+                        e.refId = rs.getInt(7);
+                        e.createdAt = rs.getTimestamp(8).toLocalDateTime();
+                        e.attempts = rs.getInt(9);
+                        out.add(e);
+                    }
+                }
+            }
+            return out;
+        }
+
+        public int delete(Connection con, List<Long> eventIds) throws SQLException {
+            if (eventIds.isEmpty()) return 0;
+            String sql = "DELETE FROM outbox WHERE event_id IN (" + placeholders(eventIds.size()) + ")";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < eventIds.size(); i++) ps.setLong(i + 1, eventIds.get(i));
+                return ps.executeUpdate();
+            }
+        }
+
+        public void addAttempt(Connection con, List<Long> eventIds) throws SQLException {
+            if (eventIds.isEmpty()) return;
+            String sql = "UPDATE outbox SET attempts = attempts + 1 WHERE event_id IN (" + placeholders(eventIds.size()) + ")";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < eventIds.size(); i++) ps.setLong(i + 1, eventIds.get(i));
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    // Helper: "?,?,..." for an IN list
+    private static String placeholders(int n) {
+        return String.join(",", Collections.nCopies(n, "?"));
+    }
 }
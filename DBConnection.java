@@ -1,38 +1,67 @@
 package db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import javax.sql.DataSource;
 
 public class DBConnection {
 
-    // Database credentials
-    private static final String URL = "jdbc:mysql://localhost:3306/Banking_management_system";
-    private static final String USER = "root";
-    private static final String PASSWORD = "jyk7890./";
-
-    // Method to establish a connection
-    public static Connection getConnection() {
-        try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            return DriverManager.getConnection(URL, USER, PASSWORD);
-        } catch (ClassNotFoundException e) {
-            System.out.println("MySQL JDBC Driver Not found.");
-            e.printStackTrace();
-            return null;
-        } catch (SQLException e) {
-            System.out.println("Connection Failed: " + e.getMessage());
-            return null;
-        }
+    // Database credentials (override with -Dbms.db.url / -Dbms.db.user / -Dbms.db.password)
+    private static final String URL = System.getProperty("bms.db.url", "jdbc:mysql://localhost:3306/Banking_management_system?rewriteBatchedStatements=true&useCursorFetch=true&useServerPrepStmts=true");
+    private static final String USER = System.getProperty("bms.db.user", "root");
+    private static final String PASSWORD = System.getProperty("bms.db.password", "jyk7890./");
+
+    // Per-statement timings, off unless -Dbms.sql.metrics=true (-Dbms.sql.slowMs sets the slow log threshold)
+    private static final SqlMetrics SQL_METRICS = Boolean.getBoolean("bms.sql.metrics")
+            ? new SqlMetrics(Long.getLong("bms.sql.slowMs", 200)) : null;
+
+    // Shared pool; sizing mirrors spring.datasource.hikari.* in the backend
+    private static final ConnectionPool POOL = new ConnectionPool(poolConfig());
+
+    private static ConnectionPool.Config poolConfig() {
+        ConnectionPool.Config c = new ConnectionPool.Config();
+        c.url = URL;
+        c.user = USER;
+        c.password = PASSWORD;
+        c.minIdle = Integer.getInteger("bms.pool.minIdle", c.minIdle);
+        c.maxSize = Integer.getInteger("bms.pool.maxSize", c.maxSize);
+        c.acquireTimeoutMs = Long.getLong("bms.pool.acquireTimeoutMs", c.acquireTimeoutMs);
+        c.leakThresholdMs = Long.getLong("bms.pool.leakThresholdMs", c.leakThresholdMs);
+        c.leakTraceEvery = Integer.getInteger("bms.pool.leakTraceEvery", c.leakTraceEvery);
+        c.maxLifetimeMs = Long.getLong("bms.pool.maxLifetimeMs", c.maxLifetimeMs);
+        c.statementCacheSize = Integer.getInteger("bms.pool.statementCacheSize", c.statementCacheSize);
+        c.sqlMetrics = SQL_METRICS;
+        return c;
+    }
+
+    // Borrow a pooled connection; close() hands it back
+    public static Connection getConnection() throws SQLException {
+        return POOL.getConnection();
+    }
+
+    public static DataSource dataSource() {
+        return POOL;
+    }
+
+    public static ConnectionPool.Stats poolStats() {
+        return POOL.stats();
+    }
+
+    // Empty when metrics are disabled
+    public static List<SqlMetrics.StatementStats> sqlStats() {
+        return SQL_METRICS == null ? Collections.emptyList() : SQL_METRICS.snapshot();
     }
 
     // Test connection
     public static void main(String[] args) {
-        Connection conn = getConnection();
-        if (conn != null) {
+        try (Connection conn = getConnection()) {
             System.out.println("✅ Connected to Database Successfully!");
-        } else {
-            System.out.println("❌ Failed to connect to Database!");
+            System.out.println("URL: " + conn.getMetaData().getURL());
+            System.out.println("Pool: " + poolStats());
+        } catch (SQLException e) {
+            System.out.println("❌ Failed to connect to Database! " + e.getMessage());
         }
     }
 }
@@ -0,0 +1,233 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Group commit for postings. Concurrent callers enqueue their work; a committer thread gathers
+// what arrives within a short window (bounded by time and count), runs it as one transaction with
+// a savepoint per request, commits once and then releases every caller. A business rejection
+// (IllegalArgumentException) only rolls back to that request's savepoint. Any other failure rolls
+// the whole group back and re-runs its requests one transaction each, so one bad request cannot
+// fail its neighbours.
+public class GroupCommit implements AutoCloseable {
+
+    public static class Config {
+        public int maxBatch = 64;
+        public long windowMicros = 500;
+        public int queueCapacity = 10_000;
+        public int maxAttempts = 3;     // per-request attempts after a group falls apart
+    }
+
+    public static class Stats {
+        public long requests;
+        public long groups;
+        public long rejected;
+        public long fallbacks;
+        public long maxGroup;
+
+        public double avgGroup() {
+            return groups == 0 ? 0 : (double) requests / groups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d groups=%d avgGroup=%.1f maxGroup=%d rejected=%d fallbacks=%d",
+                    requests, groups, avgGroup(), maxGroup, rejected, fallbacks);
+        }
+    }
+
+    // Runs inside the group's transaction; must not commit, roll back or close the connection
+    public interface Posting {
+        void apply(Connection con) throws SQLException;
+    }
+
+    private static final class Request {
+        final Posting posting;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        RuntimeException rejection;
+
+        Request(Posting posting) {
+            this.posting = posting;
+        }
+    }
+
+    private final Config cfg;
+    private final BlockingQueue<Request> queue;
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong maxGroup = new AtomicLong();
+
+    public GroupCommit(Config cfg) {
+        if (cfg.maxBatch <= 0) throw new IllegalArgumentException("maxBatch must be positive.");
+        this.cfg = cfg;
+        this.queue = new LinkedBlockingQueue<>(cfg.queueCapacity);
+        this.committer = new Thread(this::commitLoop, "bms-group-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    // Blocks until the group holding this posting has committed
+    public void submit(Posting posting) throws SQLException {
+        if (!running) throw new SQLException("Group commit is closed.");
+        Request r = new Request(posting);
+        try {
+            queue.put(r);
+            r.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for group commit.", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            if (c instanceof SQLException) throw (SQLException) c;
+            throw new SQLException("Group commit failed: " + c.getMessage(), c);
+        }
+    }
+
+    private void commitLoop() {
+        List<Request> group = new ArrayList<>(cfg.maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                group.add(first);
+                long deadline = System.nanoTime() + cfg.windowMicros * 1_000L;
+                while (group.size() < cfg.maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        queue.drainTo(group, cfg.maxBatch - group.size());
+                        break;
+                    }
+                    Request next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    group.add(next);
+                }
+                runGroup(group);
+            } catch (InterruptedException e) {
+                if (!running) break;
+            } finally {
+                for (Request r : group) {
+                    if (!r.done.isDone()) r.done.completeExceptionally(new SQLException("Group commit stopped."));
+                }
+                group.clear();
+            }
+        }
+    }
+
+    private void runGroup(List<Request> group) {
+        groups.incrementAndGet();
+        requests.addAndGet(group.size());
+        maxGroup.accumulateAndGet(group.size(), Math::max);
+        boolean committing = false, committed = false;
+        try (Connection con = DBConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try {
+                for (Request r : group) {
+                    Savepoint sp = con.setSavepoint();
+                    try {
+                        r.posting.apply(con);
+                        con.releaseSavepoint(sp);
+                    } catch (IllegalArgumentException e) {
+                        con.rollback(sp);
+                        r.rejection = e;
+                    }
+                }
+                committing = true;
+                con.commit();
+                committed = true;
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            } finally { con.setAutoCommit(true); }
+        } catch (SQLException | RuntimeException e) {
+            if (!committing) {
+                // Nothing reached the database: each request gets its own transaction
+                fallbacks.incrementAndGet();
+                for (Request r : group) runAlone(r);
+                return;
+            }
+            if (!committed) {
+                // The commit may or may not have applied; running the postings again could apply them twice
+                for (Request r : group) r.done.completeExceptionally(e);
+                return;
+            }
+            // committed; only the cleanup after it failed
+        }
+        // Only now is every accepted posting durable
+        for (Request r : group) complete(r);
+    }
+
+    // One transaction for one request, retrying deadlocks and lock timeouts
+    private void runAlone(Request r) {
+        r.rejection = null;
+        for (int attempt = 1; ; attempt++) {
+            try (Connection con = DBConnection.getConnection()) {
+                con.setAutoCommit(false);
+                try {
+                    r.posting.apply(con);
+                    con.commit();
+                } catch (IllegalArgumentException e) {
+                    con.rollback();
+                    r.rejection = e;
+                } catch (Exception e) {
+                    con.rollback();
+                    throw e;
+                } finally { con.setAutoCommit(true); }
+                complete(r);
+                return;
+            } catch (SQLException e) {
+                if (attempt >= cfg.maxAttempts || TransferEngine.classify(e) == TransferEngine.Conflict.NONE) {
+                    r.done.completeExceptionally(e);
+                    return;
+                }
+            } catch (RuntimeException e) {
+                r.done.completeExceptionally(e);
+                return;
+            }
+        }
+    }
+
+    private void complete(Request r) {
+        if (r.rejection != null) {
+            rejected.incrementAndGet();
+            r.done.completeExceptionally(r.rejection);
+        } else {
+            r.done.complete(null);
+        }
+    }
+
+    public Stats stats() {
+        Stats s = new Stats();
+        s.requests = requests.get();
+        s.groups = groups.get();
+        s.rejected = rejected.get();
+        s.fallbacks = fallbacks.get();
+        s.maxGroup = maxGroup.get();
+        return s;
+    }
+
+    // Drains what is already queued, then stops the committer
+    @Override
+    public void close() {
+        running = false;
+        try {
+            committer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
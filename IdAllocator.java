@@ -0,0 +1,89 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+// Block-reserving ID generator: reserves blockSize IDs from id_sequence at a time
+// and hands them out from memory; the fast path is a single atomic increment.
+public class IdAllocator {
+
+    // Reserves [first, first + size) for one sequence and returns first
+    public interface BlockSource {
+        long reserve(String seqName, int size) throws SQLException;
+    }
+
+    private static final class Block {
+        final long end;
+        final AtomicLong next;
+
+        Block(long first, long end) {
+            this.next = new AtomicLong(first);
+            this.end = end;
+        }
+    }
+
+    private final String seqName;
+    private final int blockSize;
+    private final BlockSource source;
+    private volatile Block current = new Block(0, 0);
+
+    public IdAllocator(String seqName, int blockSize, BlockSource source) {
+        if (blockSize <= 0) throw new IllegalArgumentException("blockSize must be positive.");
+        this.seqName = seqName;
+        this.blockSize = blockSize;
+        this.source = source;
+    }
+
+    public long next() throws SQLException {
+        while (true) {
+            Block b = current;
+            long id = b.next.getAndIncrement();
+            if (id < b.end) return id;
+            refill(b);
+        }
+    }
+
+    // Only one thread talks to the database per exhausted block
+    private synchronized void refill(Block exhausted) throws SQLException {
+        if (current != exhausted) return;
+        long first = source.reserve(seqName, blockSize);
+        current = new Block(first, first + blockSize);
+    }
+
+    // Reserves on its own connection so the range survives a rollback of the caller's transaction
+    public static BlockSource jdbc(DataSource ds) {
+        return (seqName, size) -> {
+            try (Connection con = ds.getConnection()) {
+                con.setAutoCommit(false);
+                try {
+                    long first;
+                    try (PreparedStatement ps = con.prepareStatement(
+                            "SELECT next_val FROM id_sequence WHERE seq_name=? FOR UPDATE")) {
+                        ps.setString(1, seqName);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (!rs.next()) throw new SQLException("Unknown id sequence: " + seqName);
+                            first = rs.getLong(1);
+                        }
+                    }
+                    try (PreparedStatement ps = con.prepareStatement(
+                            "UPDATE id_sequence SET next_val = next_val + ? WHERE seq_name=?")) {
+                        ps.setInt(1, size);
+                        ps.setString(2, seqName);
+                        ps.executeUpdate();
+                    }
+                    con.commit();
+                    return first;
+                } catch (Exception e) {
+                    con.rollback();
+                    throw e;
+                } finally {
+                    con.setAutoCommit(true);
+                }
+            }
+        };
+    }
+}
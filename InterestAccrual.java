@@ -0,0 +1,129 @@
+package db;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import db.DAOs.*;
+
+// Nightly interest accrual. The account_no key space is cut into ranges of chunkSize accounts, and
+// the plan is stored in interest_range before any money moves. Worker threads then take ranges in
+// parallel; each range is one transaction of set-based statements (lock, insert 'Interest' Txn rows,
+// credit balances, mark the range done). A crashed run is resumed by running the same date again:
+// only ranges not yet marked done are processed, so no account is paid twice.
+// Run it off-peak with the in-memory ledger disabled; it writes Account directly.
+public class InterestAccrual {
+
+    public static class Config {
+        public BigDecimal annualRatePercent = new BigDecimal("2.50");
+        public int chunkSize = 5_000;
+        public int parallelism = 4;     // keep at or below the pool size
+    }
+
+    public static class Report {
+        public LocalDate runDate;
+        public int ranges;
+        public int resumedFrom;         // ranges already done before this invocation
+        public long accounts;
+        public BigDecimal interest;
+        public long millis;
+
+        @Override
+        public String toString() {
+            return String.format("run %s: %d ranges (%d already done), %d accounts credited, interest %s, %d ms",
+                    runDate, ranges, resumedFrom, accounts, interest, millis);
+        }
+    }
+
+    private final InterestDAO interestDAO = new InterestDAO();
+    private final TransferEngine tx = new TransferEngine();    // for its deadlock-retrying transaction wrapper
+
+    public Report run(LocalDate runDate, Config cfg) throws SQLException, InterruptedException {
+        if (cfg.chunkSize <= 0 || cfg.parallelism <= 0) throw new IllegalArgumentException("chunkSize and parallelism must be positive.");
+        long t0 = System.nanoTime();
+        BigDecimal dailyRate = cfg.annualRatePercent.divide(BigDecimal.valueOf(36_500), MathContext.DECIMAL64);
+
+        int planned;
+        List<long[]> pending;
+        try (Connection con = DBConnection.getConnection()) {
+            planned = interestDAO.countRanges(con, runDate);
+            if (planned == 0) {
+                List<long[]> ranges = interestDAO.planRanges(con, cfg.chunkSize);
+                con.setAutoCommit(false);
+                try {
+                    interestDAO.saveRanges(con, runDate, ranges);
+                    con.commit();
+                } catch (Exception e) {
+                    con.rollback();
+                    throw e;
+                } finally { con.setAutoCommit(true); }
+                planned = ranges.size();
+            }
+            pending = interestDAO.pendingRanges(con, runDate);
+        }
+
+        AtomicLong accounts = new AtomicLong();
+        AtomicLong cents = new AtomicLong();
+        AtomicInteger finished = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(cfg.parallelism, r -> {
+            Thread t = new Thread(r, "bms-interest");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(pending.size());
+            for (long[] range : pending) {
+                futures.add(pool.submit(() -> {
+                    long[][] result = new long[1][];
+                    tx.inTransaction(con -> result[0] = interestDAO.accrueRange(con, runDate, range[0], range[1], dailyRate));
+                    accounts.addAndGet(result[0][0]);   // only counted once committed
+                    cents.addAndGet(result[0][1]);
+                    int n = finished.incrementAndGet();
+                    if (n % 100 == 0) System.out.println("Interest: " + n + "/" + pending.size() + " ranges");
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    // remaining ranges keep running; rerun the same date to finish what failed
+                    Throwable c = e.getCause();
+                    throw c instanceof SQLException ? (SQLException) c : new SQLException("Interest range failed: " + c.getMessage(), c);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Report rep = new Report();
+        rep.runDate = runDate;
+        rep.ranges = planned;
+        rep.resumedFrom = planned - pending.size();
+        rep.accounts = accounts.get();
+        rep.interest = BigDecimal.valueOf(cents.get(), 2);
+        rep.millis = (System.nanoTime() - t0) / 1_000_000;
+        return rep;
+    }
+
+    // java db.InterestAccrual [yyyy-mm-dd] [annual rate %]
+    public static void main(String[] args) throws Exception {
+        LocalDate runDate = args.length > 0 ? LocalDate.parse(args[0]) : LocalDate.now();
+        Config cfg = new Config();
+        if (args.length > 1) cfg.annualRatePercent = new BigDecimal(args[1]);
+        cfg.chunkSize = Integer.getInteger("bms.interest.chunkSize", cfg.chunkSize);
+        cfg.parallelism = Integer.getInteger("bms.interest.parallelism", cfg.parallelism);
+        System.out.println(new InterestAccrual().run(runDate, cfg));
+        System.exit(0);
+    }
+}
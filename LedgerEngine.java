@@ -0,0 +1,835 @@
+package db;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import db.DAOs.*;
+import db.Models.OutboxEvent;
+
+// In-memory ledger for peak hours. Accounts are partitioned into shards; each shard owns its
+// balances (cents, in a primitive map) and a journal file, and is mutated only by its own thread.
+// A posting is acknowledged once its journal record is forced to disk; a write-behind thread then
+// applies journaled postings to Account/Txn in batches and records per-shard checkpoints in the
+// same transaction. Startup loads Account balances and replays journal records past the checkpoint.
+// The shard count must not change across restarts unless the previous run shut down cleanly.
+public class LedgerEngine implements AutoCloseable {
+
+    public static class Config {
+        public int shards = Runtime.getRuntime().availableProcessors();
+        public Path journalDir = Paths.get("ledger");
+        public int queueCapacity = 65_536;
+        public int flushBatch = 1_000;
+        public long flushIntervalMs = 50;
+        public long maxJournalBytes = 64L << 20;
+        public long awaitTimeoutMs = 30_000;    // callers give up on an unanswered posting after this
+        public int flushRetries = 20;           // failed write-behind batches, backing off up to 30 s
+    }
+
+    public static class Stats {
+        public long postings;
+        public long rejected;
+        public long journalForces;
+        public long flushedRecords;
+        public long flushBatches;
+        public long pendingWriteBehind;
+
+        @Override
+        public String toString() {
+            return String.format("postings=%d rejected=%d journalForces=%d flushed=%d flushBatches=%d pending=%d",
+                    postings, rejected, journalForces, flushedRecords, flushBatches, pendingWriteBehind);
+        }
+    }
+
+    static final byte DEPOSIT = 1, WITHDRAW = 2, TRANSFER = 3, REFUND = 4;
+    static final int RECORD_BYTES = 8 + 1 + 8 + 8 + 8;   // seq, kind, account, cents, peer
+
+    // One journaled posting; also the unit of write-behind
+    static final class Entry {
+        final int shard;
+        final long seq;
+        final byte kind;
+        final long account;
+        final long cents;
+        final long peer;     // credited account for TRANSFER
+
+        Entry(int shard, long seq, byte kind, long account, long cents, long peer) {
+            this.shard = shard;
+            this.seq = seq;
+            this.kind = kind;
+            this.account = account;
+            this.cents = cents;
+            this.peer = peer;
+        }
+    }
+
+    private final Config cfg;
+    private final Shard[] shards;
+    private final BlockingQueue<Entry> writeBehind;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final AccountDAO accountDAO = new AccountDAO();
+    private final TxnDAO txnDAO = new TxnDAO();
+    private final OutboxDAO outboxDAO = new OutboxDAO();
+
+    private final AtomicLong postings = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong journalForces = new AtomicLong();
+    private final AtomicLong flushedRecords = new AtomicLong();
+    private final AtomicLong flushBatches = new AtomicLong();
+
+    public static LedgerEngine start(Config cfg) throws SQLException, IOException {
+        LedgerEngine e = new LedgerEngine(cfg);
+        e.recover();
+        for (Shard s : e.shards) s.thread.start();
+        e.flusher.start();
+        return e;
+    }
+
+    private LedgerEngine(Config cfg) throws IOException {
+        this.cfg = cfg;
+        Files.createDirectories(cfg.journalDir);
+        this.shards = new Shard[cfg.shards];
+        for (int i = 0; i < shards.length; i++) shards[i] = new Shard(i);
+        this.writeBehind = new ArrayBlockingQueue<>(cfg.queueCapacity);
+        this.flusher = new Thread(this::flushLoop, "bms-ledger-writebehind");
+        flusher.setDaemon(true);
+    }
+
+    // Public API; amounts are validated here, account rules on the owning shard
+
+    public void deposit(long accountNo, Money amount) throws SQLException {
+        long cents = toCents(amount);
+        if (accountNo <= 0) throw new IllegalArgumentException("Account not found.");
+        Shard s = shardOf(accountNo);
+        await(s.submit(new Post(DEPOSIT, accountNo, cents)));
+    }
+
+    public void withdraw(long accountNo, Money amount) throws SQLException {
+        long cents = toCents(amount);
+        if (accountNo <= 0) throw new IllegalArgumentException("Account not found.");
+        Shard s = shardOf(accountNo);
+        await(s.submit(new Post(WITHDRAW, accountNo, cents)));
+    }
+
+    public void transfer(long fromAccount, long toAccount, Money amount) throws SQLException {
+        long cents = toCents(amount);
+        if (fromAccount == toAccount) throw new IllegalArgumentException("Cannot transfer to same account.");
+        if (fromAccount <= 0 || toAccount <= 0) throw new IllegalArgumentException("One or both accounts do not exist.");
+        Shard s = shardOf(fromAccount);
+        await(s.submit(new TransferOut(fromAccount, toAccount, cents)));
+    }
+
+    // null when the account is unknown, like AccountDAO.getBalance
+    public BigDecimal balance(long accountNo) throws SQLException {
+        if (accountNo <= 0) return null;
+        Shard s = shardOf(accountNo);
+        Long cents = await(s.submit(new Read(accountNo)));
+        return cents == null ? null : BigDecimal.valueOf(cents, 2);
+    }
+
+    // Called after the Account row is committed; account numbers are positive (IdAllocator, id_sequence)
+    public void openAccount(long accountNo) throws SQLException {
+        requireStorable(accountNo);
+        await(shardOf(accountNo).submit(new Open(accountNo)));
+    }
+
+    // Called after the Account row is deleted; write-behind for postings accepted meanwhile is
+    // drained, and finds the row gone
+    public void closeAccount(long accountNo) throws SQLException {
+        if (accountNo <= 0) return;
+        await(shardOf(accountNo).submit(new Close(accountNo)));
+        awaitWriteBehind();
+    }
+
+    public void awaitWriteBehind() throws SQLException {
+        for (Shard s : shards) {
+            long target = s.lastSeq;
+            while (s.flushedSeq < target) {
+                if (!flusher.isAlive()) throw new SQLException("Ledger write-behind is not running.");
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while draining the ledger.", e);
+                }
+            }
+        }
+    }
+
+    // 0 marks an empty slot in LongLongMap, and account numbers are never negative
+    private static void requireStorable(long accountNo) throws SQLException {
+        if (accountNo <= 0) throw new SQLException("Ledger cannot hold account_no " + accountNo + ".");
+    }
+
+    static long toCents(Money amount) {
+        if (!amount.isPositive()) throw new IllegalArgumentException("Amount must be positive.");
+        return amount.cents();
+    }
+
+    private Shard shardOf(long accountNo) {
+        return shards[(int) (((accountNo * 0x9E3779B97F4A7C15L) >>> 33) % shards.length)];
+    }
+
+    private <T> T await(CompletableFuture<T> f) throws SQLException {
+        try {
+            return f.get(cfg.awaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the ledger.", e);
+        } catch (TimeoutException e) {
+            throw new SQLException("Ledger did not answer within " + cfg.awaitTimeoutMs + "ms; the posting may still complete.", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            if (c instanceof SQLException) throw (SQLException) c;
+            throw new SQLException("Ledger posting failed: " + c.getMessage(), c);
+        }
+    }
+
+    // Shard commands, executed on the shard thread
+
+    private abstract static class Command<T> {
+        final CompletableFuture<T> done = new CompletableFuture<>();
+        boolean external;   // holds one of the target shard's queue permits
+
+        // Returns the record to journal, or null; completes done itself or via afterForce.
+        // Must not change any balance before it can no longer throw.
+        abstract Entry apply(Shard s);
+
+        // apply() threw: nothing was changed or journaled
+        void fail(Shard s, RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+
+        // Runs once the batch containing this command's record is durable
+        void afterForce(Shard s) { }
+    }
+
+    private class Post extends Command<Void> {
+        final byte kind;
+        final long account;
+        final long cents;
+
+        Post(byte kind, long account, long cents) {
+            this.kind = kind;
+            this.account = account;
+            this.cents = cents;
+        }
+
+        @Override
+        Entry apply(Shard s) {
+            long bal = s.balances.get(account, Long.MIN_VALUE);
+            if (bal == Long.MIN_VALUE) return reject(done, "Account not found.");
+            if (kind == WITHDRAW && bal < cents) return reject(done, "Insufficient balance.");
+            // Account.balance is DECIMAL(15,2); a balance write-behind cannot store must not be acknowledged
+            if (kind != WITHDRAW && bal > Money.MAX_CENTS - cents) return reject(done, "Amount is too large.");
+            s.balances.put(account, kind == WITHDRAW ? bal - cents : bal + cents);
+            return s.record(kind, account, cents, 0);
+        }
+
+        @Override
+        void afterForce(Shard s) {
+            if (!done.isDone()) done.complete(null);
+        }
+    }
+
+    private class TransferOut extends Command<Void> {
+        final long from;
+        final long to;
+        final long cents;
+
+        TransferOut(long from, long to, long cents) {
+            this.from = from;
+            this.to = to;
+            this.cents = cents;
+        }
+
+        @Override
+        Entry apply(Shard s) {
+            long bal = s.balances.get(from, Long.MIN_VALUE);
+            if (bal == Long.MIN_VALUE) return reject(done, "One or both accounts do not exist.");
+            if (bal < cents) return reject(done, "Insufficient balance.");
+            s.balances.put(from, bal - cents);
+            return s.record(TRANSFER, from, cents, to);
+        }
+
+        @Override
+        void afterForce(Shard s) {
+            if (done.isDone()) return;
+            // The source journal covers both legs, so the credit itself is not journaled again
+            Shard target = shardOf(to);
+            target.forward(new CreditIn(this));
+        }
+    }
+
+    private class CreditIn extends Command<Void> {
+        final TransferOut out;
+
+        CreditIn(TransferOut out) { this.out = out; }
+
+        @Override
+        Entry apply(Shard s) {
+            long bal = s.balances.get(out.to, Long.MIN_VALUE);
+            if (bal == Long.MIN_VALUE) {
+                // Target vanished after the debit was journaled: hand the money back
+                refund("One or both accounts do not exist.");
+                return null;
+            }
+            if (bal > Money.MAX_CENTS - out.cents) {
+                refund("Amount is too large.");
+                return null;
+            }
+            s.balances.put(out.to, bal + out.cents);
+            out.done.complete(null);
+            return null;
+        }
+
+        // The credit cannot be applied: the journaled debit is refunded like a vanished target
+        @Override
+        void fail(Shard s, RuntimeException e) {
+            refund("Transfer could not be credited: " + e.getMessage());
+        }
+
+        private void refund(String reason) {
+            shardOf(out.from).forward(new Refund(out, reason));
+        }
+    }
+
+    private class Refund extends Command<Void> {
+        final TransferOut out;
+        final String reason;
+
+        Refund(TransferOut out, String reason) {
+            this.out = out;
+            this.reason = reason;
+        }
+
+        @Override
+        Entry apply(Shard s) {
+            long bal = s.balances.get(out.from, Long.MIN_VALUE);
+            if (bal != Long.MIN_VALUE) s.balances.put(out.from, Math.addExact(bal, out.cents));
+            return s.record(REFUND, out.from, out.cents, out.to);
+        }
+
+        @Override
+        void afterForce(Shard s) {
+            rejected.incrementAndGet();
+            out.done.completeExceptionally(new IllegalArgumentException(reason));
+        }
+
+        @Override
+        void fail(Shard s, RuntimeException e) {
+            out.done.completeExceptionally(e);
+        }
+    }
+
+    private static class Read extends Command<Long> {
+        final long account;
+
+        Read(long account) { this.account = account; }
+
+        @Override
+        Entry apply(Shard s) {
+            long bal = s.balances.get(account, Long.MIN_VALUE);
+            done.complete(bal == Long.MIN_VALUE ? null : bal);
+            return null;
+        }
+    }
+
+    private static class Open extends Command<Void> {
+        final long account;
+
+        Open(long account) { this.account = account; }
+
+        @Override
+        Entry apply(Shard s) {
+            if (!s.balances.containsKey(account)) s.balances.put(account, 0);
+            done.complete(null);
+            return null;
+        }
+    }
+
+    private static class Close extends Command<Void> {
+        final long account;
+
+        Close(long account) { this.account = account; }
+
+        @Override
+        Entry apply(Shard s) {
+            s.balances.remove(account);
+            done.complete(null);
+            return null;
+        }
+    }
+
+    private Entry reject(CompletableFuture<?> done, String message) {
+        rejected.incrementAndGet();
+        done.completeExceptionally(new IllegalArgumentException(message));
+        return null;
+    }
+
+    // A partition of accounts with its own writer thread and journal
+
+    private final class Shard {
+        final int id;
+        final LongLongMap balances = new LongLongMap(1 << 12);
+        final BlockingQueue<Command<?>> inbox = new LinkedBlockingQueue<>();
+        final Semaphore permits = new Semaphore(cfg.queueCapacity);   // backpressure for callers only
+        final Thread thread;
+        final Path journalPath;
+        final ByteBuffer buf;
+        FileChannel journal;
+        volatile long lastSeq;
+        volatile long flushedSeq;
+
+        Shard(int id) {
+            this.id = id;
+            this.journalPath = cfg.journalDir.resolve("shard-" + id + ".journal");
+            this.buf = ByteBuffer.allocateDirect(RECORD_BYTES * 1024);
+            this.thread = new Thread(this::loop, "bms-ledger-shard-" + id);
+            thread.setDaemon(true);
+        }
+
+        // From API callers: blocks while the shard is saturated
+        <T> CompletableFuture<T> submit(Command<T> c) {
+            if (!running) {
+                c.done.completeExceptionally(new IllegalStateException("Ledger is shut down."));
+                return c.done;
+            }
+            try {
+                permits.acquire();
+                c.external = true;
+                inbox.add(c);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                c.done.completeExceptionally(e);
+            }
+            return c.done;
+        }
+
+        // From another shard's thread: never blocks, so two busy shards cannot wait on each other
+        void forward(Command<?> c) {
+            inbox.add(c);
+        }
+
+        Entry record(byte kind, long account, long cents, long peer) {
+            Entry e = new Entry(id, ++lastSeq, kind, account, cents, peer);
+            buf.putLong(e.seq).put(kind).putLong(account).putLong(cents).putLong(peer);
+            return e;
+        }
+
+        private void loop() {
+            List<Command<?>> batch = new ArrayList<>(1024);
+            List<Entry> entries = new ArrayList<>(1024);
+            while (running || !inbox.isEmpty()) {
+                try {
+                    Command<?> first = inbox.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    inbox.drainTo(batch, buf.capacity() / RECORD_BYTES - 1);
+                    buf.clear();
+                    for (Command<?> c : batch) {
+                        // One bad command fails alone; the others' records are still journaled
+                        try {
+                            Entry e = c.apply(this);
+                            if (e != null) entries.add(e);
+                        } catch (RuntimeException ex) {
+                            c.fail(this, ex);
+                        }
+                    }
+                    if (!entries.isEmpty()) {
+                        buf.flip();
+                        while (buf.hasRemaining()) journal.write(buf);
+                        journal.force(false);   // one fsync for the whole drained batch
+                        journalForces.incrementAndGet();
+                        postings.addAndGet(entries.size());
+                    }
+                    for (Command<?> c : batch) {
+                        try {
+                            c.afterForce(this);
+                        } catch (RuntimeException ex) {
+                            c.done.completeExceptionally(ex);
+                        } finally {
+                            if (c.external) permits.release();
+                        }
+                    }
+                    batch.clear();      // answered; a failure below must not release their permits again
+                    for (Entry e : entries) {
+                        while (!writeBehind.offer(e, 100, TimeUnit.MILLISECONDS)) {
+                            if (!flusher.isAlive()) throw new IOException("Ledger write-behind stopped.");
+                        }
+                    }
+                    maybeTruncate();
+                } catch (IOException e) {
+                    // Journal is unusable: fail the batch rather than acknowledge undurable postings
+                    for (Command<?> c : batch) {
+                        c.done.completeExceptionally(e);
+                        if (c.external) permits.release();
+                    }
+                    System.out.println("Ledger shard " + id + " journal failure: " + e.getMessage());
+                    running = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    batch.clear();
+                    entries.clear();
+                }
+            }
+        }
+
+        // Once every journaled record has reached MySQL the journal can start over
+        private void maybeTruncate() throws IOException {
+            if (journal.size() > cfg.maxJournalBytes && flushedSeq == lastSeq) journal.truncate(0);
+        }
+    }
+
+    // Write-behind: applies journaled postings to Account/Txn in batches
+
+    private void flushLoop() {
+        List<Entry> batch = new ArrayList<>(cfg.flushBatch);
+        while (running || !writeBehind.isEmpty()) {
+            try {
+                Entry first = writeBehind.poll(cfg.flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                writeBehind.drainTo(batch, cfg.flushBatch - 1);
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        flush(batch);
+                        break;
+                    } catch (SQLException | RuntimeException e) {
+                        if (attempt >= cfg.flushRetries) {
+                            // The batch stays in the journals and is replayed on the next start
+                            System.out.println("Ledger write-behind failed " + attempt + " times, stopping the ledger: " + e.getMessage());
+                            running = false;
+                            return;
+                        }
+                        System.out.println("Ledger write-behind failed, retrying: " + e.getMessage());
+                        Thread.sleep(Math.min(30_000, 1_000L << Math.min(attempt - 1, 5)));
+                    }
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void flush(List<Entry> batch) throws SQLException {
+        long[] checkpoint = new long[shards.length];
+        List<OutboxEvent> events = new ArrayList<>(batch.size());
+        try (Connection con = DBConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try {
+                for (Entry e : batch) {
+                    Money amt = Money.ofCents(e.cents);
+                    switch (e.kind) {
+                        case DEPOSIT:
+                            if (post(con, e.account, amt, "Deposit", amt)) events.add(Outbox.posting(Outbox.DEPOSIT, e.account, amt, 0));
+                            break;
+                        case WITHDRAW:
+                            if (post(con, e.account, amt.negate(), "Withdraw", amt)) events.add(Outbox.posting(Outbox.WITHDRAW, e.account, amt, 0));
+                            break;
+                        case TRANSFER:
+                            if (post(con, e.account, amt.negate(), "Transfer", amt)) events.add(Outbox.posting(Outbox.TRANSFER_OUT, e.account, amt, e.peer));
+                            // receiver sees a deposit
+                            if (post(con, e.peer, amt, "Deposit", amt)) events.add(Outbox.posting(Outbox.TRANSFER_IN, e.peer, amt, e.account));
+                            break;
+                        case REFUND:
+                            if (post(con, e.account, amt, "Deposit", amt)) events.add(Outbox.posting(Outbox.REFUND, e.account, amt, e.peer));
+                            // undo the credit leg
+                            if (post(con, e.peer, amt.negate(), "Transfer", amt)) events.add(Outbox.posting(Outbox.TRANSFER_REVERSED, e.peer, amt, e.account));
+                            break;
+                        default:
+                            throw new IllegalStateException("Unknown ledger record kind " + e.kind);
+                    }
+                    checkpoint[e.shard] = e.seq;
+                }
+                outboxDAO.addBatch(con, events);
+                try (PreparedStatement ps = con.prepareStatement(
+                        "UPDATE ledger_checkpoint SET applied_seq=? WHERE shard=?")) {
+                    for (int i = 0; i < checkpoint.length; i++) {
+                        if (checkpoint[i] == 0) continue;
+                        ps.setLong(1, checkpoint[i]);
+                        ps.setInt(2, i);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                con.commit();
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            } finally { con.setAutoCommit(true); }
+        }
+        for (int i = 0; i < checkpoint.length; i++) {
+            if (checkpoint[i] != 0) shards[i].flushedSeq = checkpoint[i];
+        }
+        flushedRecords.addAndGet(batch.size());
+        flushBatches.incrementAndGet();
+    }
+
+    // Unguarded: the shard already validated it; rows deleted meanwhile are skipped (false)
+    private boolean post(Connection con, long account, Money delta, String type, Money amount) throws SQLException {
+        if (!accountDAO.credit(con, account, delta)) return false;
+        txnDAO.insertTxn(con, account, type, amount);
+        return true;
+    }
+
+    // Startup: MySQL balances plus journal records past each shard's checkpoint
+
+    private void recover() throws SQLException, IOException {
+        long[] applied = new long[shards.length];
+        try (Connection con = DBConnection.getConnection()) {
+            try (PreparedStatement ps = con.prepareStatement("SELECT shard, applied_seq FROM ledger_checkpoint");
+                 ResultSet rs = ps.executeQuery()) {
+                boolean[] present = new boolean[shards.length];
+                while (rs.next()) {
+                    int shard = rs.getInt(1);
+                    if (shard < shards.length) {
+                        applied[shard] = rs.getLong(2);
+                        present[shard] = true;
+                    }
+                }
+                try (PreparedStatement ins = con.prepareStatement(
+                        "INSERT INTO ledger_checkpoint(shard, applied_seq) VALUES(?, 0)")) {
+                    for (int i = 0; i < shards.length; i++) {
+                        if (present[i]) continue;
+                        ins.setInt(1, i);
+                        ins.addBatch();
+                    }
+                    ins.executeBatch();
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement("SELECT account_no, balance FROM Account",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(10_000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        long acc = rs.getLong(1);
+                        requireStorable(acc);
+                        shardOf(acc).balances.put(acc, rs.getBigDecimal(2).movePointRight(2).longValueExact());
+                    }
+                }
+            }
+        }
+        List<Entry> replay = new ArrayList<>();
+        for (Shard s : shards) {
+            s.journal = FileChannel.open(s.journalPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long valid = readJournal(s, applied[s.id], replay);
+            s.journal.truncate(valid);      // drop a torn tail record
+            s.journal.position(valid);
+            s.lastSeq = Math.max(s.lastSeq, applied[s.id]);
+            s.flushedSeq = applied[s.id];
+        }
+        // Transfers whose target no longer exists and whose refund was never journaled
+        Map<String, List<Entry>> unrefunded = new HashMap<>();
+        for (Entry e : replay) {
+            switch (e.kind) {
+                case DEPOSIT: adjust(e.account, e.cents); break;
+                case WITHDRAW: adjust(e.account, -e.cents); break;
+                case TRANSFER:
+                    adjust(e.account, -e.cents);
+                    if (shardOf(e.peer).balances.containsKey(e.peer)) {
+                        adjust(e.peer, e.cents);
+                    } else {
+                        unrefunded.computeIfAbsent(transferKey(e), k -> new ArrayList<>()).add(e);
+                    }
+                    break;
+                case REFUND:
+                    adjust(e.account, e.cents);
+                    adjust(e.peer, -e.cents);
+                    List<Entry> open = unrefunded.get(transferKey(e));
+                    if (open != null && !open.isEmpty()) open.remove(0);
+                    break;
+                default: throw new IOException("Corrupt ledger journal record kind " + e.kind);
+            }
+        }
+        for (List<Entry> open : unrefunded.values()) {
+            for (Entry t : open) {
+                Shard s = shardOf(t.account);
+                s.buf.clear();
+                replay.add(s.record(REFUND, t.account, t.cents, t.peer));
+                s.buf.flip();
+                while (s.buf.hasRemaining()) s.journal.write(s.buf);
+                s.journal.force(false);
+                adjust(t.account, t.cents);
+            }
+        }
+        // Replayed records reach MySQL before any new posting so checkpoints only move forward
+        for (int i = 0; i < replay.size(); i += cfg.flushBatch) {
+            flush(replay.subList(i, Math.min(replay.size(), i + cfg.flushBatch)));
+        }
+    }
+
+    private static String transferKey(Entry e) {
+        return e.account + ":" + e.peer + ":" + e.cents;
+    }
+
+    private void adjust(long account, long delta) {
+        LongLongMap m = shardOf(account).balances;
+        long bal = m.get(account, Long.MIN_VALUE);
+        if (bal != Long.MIN_VALUE) m.put(account, bal + delta);
+    }
+
+    // Collects records newer than appliedSeq; returns the byte length of the intact prefix
+    private long readJournal(Shard s, long appliedSeq, List<Entry> out) throws IOException {
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_BYTES);
+        long pos = 0;
+        s.journal.position(0);
+        while (true) {
+            rec.clear();
+            while (rec.hasRemaining()) {
+                if (s.journal.read(rec) < 0) return pos;
+            }
+            rec.flip();
+            long seq = rec.getLong();
+            byte kind = rec.get();
+            long account = rec.getLong();
+            long cents = rec.getLong();
+            long peer = rec.getLong();
+            s.lastSeq = Math.max(s.lastSeq, seq);
+            if (seq > appliedSeq) out.add(new Entry(s.id, seq, kind, account, cents, peer));
+            pos += RECORD_BYTES;
+        }
+    }
+
+    public Stats stats() {
+        Stats st = new Stats();
+        st.postings = postings.get();
+        st.rejected = rejected.get();
+        st.journalForces = journalForces.get();
+        st.flushedRecords = flushedRecords.get();
+        st.flushBatches = flushBatches.get();
+        st.pendingWriteBehind = writeBehind.size();
+        return st;
+    }
+
+    // Drains shards and write-behind, then empties the journals
+    @Override
+    public void close() throws SQLException {
+        awaitWriteBehind();
+        running = false;
+        try {
+            for (Shard s : shards) s.thread.join();
+            flusher.join();
+            for (Shard s : shards) {
+                if (s.flushedSeq == s.lastSeq) s.journal.truncate(0);
+                s.journal.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new SQLException("Failed to close ledger journals.", e);
+        }
+    }
+
+    // Open-addressing long -> long map with linear probing; key 0 is reserved as the empty marker
+    // and is never present
+    static final class LongLongMap {
+        private long[] keys;
+        private long[] values;
+        private int size;
+        private int mask;
+
+        LongLongMap(int capacity) {
+            int n = Integer.highestOneBit(Math.max(4, capacity - 1)) << 1;
+            keys = new long[n];
+            values = new long[n];
+            mask = n - 1;
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        long get(long key, long missing) {
+            if (key == 0) return missing;
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+                if (keys[i] == 0) return missing;
+            }
+        }
+
+        boolean containsKey(long key) {
+            return get(key, Long.MIN_VALUE) != Long.MIN_VALUE;
+        }
+
+        void put(long key, long value) {
+            if (key == 0) throw new IllegalArgumentException("Key 0 is reserved.");
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                if (keys[i] == 0) {
+                    keys[i] = key;
+                    values[i] = value;
+                    if (++size * 4 > keys.length * 3) grow();
+                    return;
+                }
+            }
+        }
+
+        void remove(long key) {
+            if (key == 0) return;
+            int i = slot(key);
+            while (keys[i] != key) {
+                if (keys[i] == 0) return;
+                i = (i + 1) & mask;
+            }
+            keys[i] = 0;
+            size--;
+            // Backward-shift the rest of the probe run so lookups never stop early
+            for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                long k = keys[j], v = values[j];
+                keys[j] = 0;
+                size--;
+                put(k, v);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys, oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldValues.length * 2];
+            mask = keys.length - 1;
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
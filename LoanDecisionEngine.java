@@ -0,0 +1,306 @@
+package db;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import db.DAOs.*;
+import db.Models.*;
+
+// Bulk decisions for Pending loans. Loans are read in loan_id pages; for each page the applicants'
+// balances, lowest balance over the history window (from balance_snapshot) and approved exposure
+// are fetched with one query each. The page is then decided in rounds that take each applicant's
+// next loan: the rules run in parallel across applicants and the round's decisions go back as one
+// batched UPDATE, so an approval counts toward the applicant's exposure only once it was written.
+// Most applicants have one loan per page, so a page usually takes one round. The first rule that
+// fires decides the loan; a loan no rule objects to is approved. Referred loans stay Pending for an
+// underwriter.
+// Run db.BalanceSnapshots first so the history rule sees recent days.
+public class LoanDecisionEngine {
+
+    public enum Outcome { REJECT, REFER }
+
+    // What the rules know about one customer; exposure grows as their loans in a page are approved
+    // (written, not just decided)
+    public static class Applicant {
+        public final int customerId;
+        public final BigDecimal balance;
+        public final BigDecimal lowBalance;
+        public BigDecimal exposure;
+
+        Applicant(int customerId, BigDecimal balance, BigDecimal lowBalance, BigDecimal exposure) {
+            this.customerId = customerId;
+            this.balance = balance;
+            this.lowBalance = lowBalance;
+            this.exposure = exposure;
+        }
+    }
+
+    public interface Check {
+        // null when the rule has no objection
+        Outcome check(Loan loan, Applicant applicant);
+    }
+
+    public static class Rule {
+        public final String name;
+        final Check check;
+
+        public Rule(String name, Check check) {
+            this.name = name;
+            this.check = check;
+        }
+    }
+
+    public static class Config {
+        public int pageSize = 500;
+        public int parallelism = 4;
+        public int historyDays = 90;
+        // keyed by normalized loan type, see typeKey
+        public Map<String, BigDecimal> limits = new HashMap<>(Map.of(
+                "home", new BigDecimal("5000000"),
+                "car", new BigDecimal("1000000"),
+                "business", new BigDecimal("2000000"),
+                "education", new BigDecimal("500000"),
+                "personal", new BigDecimal("300000"),
+                "others", new BigDecimal("100000")));
+        public BigDecimal minBalanceRatio = new BigDecimal("0.10");    // lowest balance vs. amount applied for
+        public BigDecimal maxExposureRatio = new BigDecimal("20");     // approved loans + this one vs. balance
+    }
+
+    public static class Report {
+        public long loans;
+        public long approved;
+        public long rejected;
+        public long referred;
+        public long unchanged;      // decided by hand while the page was being evaluated
+        public int pages;
+        public long millis;
+        public Map<String, Long> ruleHits = new TreeMap<>();
+
+        public double loansPerSecond() {
+            return millis == 0 ? loans : loans * 1000.0 / millis;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(
+                    "%d loans in %d pages, %d ms (%.0f loans/s): approved=%d rejected=%d referred=%d unchanged=%d",
+                    loans, pages, millis, loansPerSecond(), approved, rejected, referred, unchanged));
+            ruleHits.forEach((rule, n) -> sb.append(String.format("%n  %-16s %d", rule, n)));
+            return sb.toString();
+        }
+    }
+
+    // "Home", "home loan" and "Home Loan" are the same product
+    static String typeKey(String loanType) {
+        String k = loanType == null ? "" : loanType.trim().toLowerCase(Locale.ROOT);
+        return k.endsWith(" loan") ? k.substring(0, k.length() - 5).trim() : k;
+    }
+
+    public static List<Rule> defaultRules(Config cfg) {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new Rule("type-limit", (loan, a) -> {
+            BigDecimal limit = cfg.limits.get(typeKey(loan.loanType));
+            if (limit == null) return Outcome.REFER;
+            return loan.loanAmount.compareTo(limit) > 0 ? Outcome.REJECT : null;
+        }));
+        rules.add(new Rule("balance-history", (loan, a) ->
+                a.lowBalance.compareTo(loan.loanAmount.multiply(cfg.minBalanceRatio)) < 0 ? Outcome.REJECT : null));
+        rules.add(new Rule("exposure", (loan, a) ->
+                a.exposure.add(loan.loanAmount).compareTo(a.balance.multiply(cfg.maxExposureRatio)) > 0 ? Outcome.REFER : null));
+        return rules;
+    }
+
+    private static final String NO_ACCOUNTS = "no-accounts";
+    private static final String APPROVED = "(approved)";
+
+    private final Config cfg;
+    private final List<Rule> rules;
+    private final LoanDAO loanDAO = new LoanDAO();
+
+    public LoanDecisionEngine(Config cfg) {
+        this(cfg, defaultRules(cfg));
+    }
+
+    public LoanDecisionEngine(Config cfg, List<Rule> rules) {
+        if (cfg.pageSize <= 0 || cfg.parallelism <= 0) throw new IllegalArgumentException("pageSize and parallelism must be positive.");
+        this.cfg = cfg;
+        this.rules = List.copyOf(rules);
+    }
+
+    public Report run() throws SQLException, InterruptedException {
+        long t0 = System.nanoTime();
+        Report rep = new Report();
+        Map<String, LongAdder> hits = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(cfg.parallelism, r -> {
+            Thread t = new Thread(r, "bms-loan-rules");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            int after = 0;
+            while (true) {
+                List<Loan> page;
+                Map<Integer, Applicant> applicants;
+                try (Connection con = DBConnection.getConnection()) {
+                    page = loanDAO.pendingPage(con, after, cfg.pageSize);
+                    if (page.isEmpty()) break;
+                    applicants = applicants(con, page);
+                }
+                Map<Integer, List<Loan>> byCustomer = new LinkedHashMap<>();
+                for (Loan l : page) byCustomer.computeIfAbsent(l.customerId, k -> new ArrayList<>()).add(l);
+                int decided = 0;
+                for (int round = 0; !byCustomer.isEmpty(); round++) {
+                    List<Loan> next = new ArrayList<>(byCustomer.size());
+                    for (Iterator<List<Loan>> it = byCustomer.values().iterator(); it.hasNext(); ) {
+                        List<Loan> loans = it.next();
+                        next.add(loans.get(round));
+                        if (loans.size() == round + 1) it.remove();
+                    }
+                    Map<Integer, String> decisions = evaluate(pool, next, applicants, hits);
+                    Set<Integer> updated = write(decisions);
+                    for (Loan l : next) {
+                        String status = decisions.get(l.loanId);
+                        // decided by hand in the meantime: counted in unchanged, not here
+                        if (status == null || !updated.contains(l.loanId)) continue;
+                        if (status.equals("Approved")) {
+                            rep.approved++;
+                            Applicant a = applicants.get(l.customerId);
+                            a.exposure = a.exposure.add(l.loanAmount);
+                        } else {
+                            rep.rejected++;
+                        }
+                    }
+                    rep.unchanged += decisions.size() - updated.size();
+                    decided += decisions.size();
+                }
+
+                rep.pages++;
+                rep.loans += page.size();
+                rep.referred += page.size() - decided;
+                after = page.get(page.size() - 1).loanId;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        hits.forEach((rule, n) -> rep.ruleHits.put(rule, n.sum()));
+        rep.millis = (System.nanoTime() - t0) / 1_000_000;
+        return rep;
+    }
+
+    // One query per fact for the whole page, not one per loan
+    private Map<Integer, Applicant> applicants(Connection con, List<Loan> page) throws SQLException {
+        Set<Integer> distinct = new LinkedHashSet<>();
+        for (Loan l : page) distinct.add(l.customerId);
+        List<Integer> ids = new ArrayList<>(distinct);
+        Map<Integer, BigDecimal[]> profiles = loanDAO.balanceProfiles(con, ids, LocalDate.now().minusDays(cfg.historyDays));
+        Map<Integer, BigDecimal> exposure = loanDAO.approvedExposure(con, ids);
+        Map<Integer, Applicant> out = new HashMap<>();
+        profiles.forEach((id, p) -> out.put(id, new Applicant(id, p[0], p[1], exposure.getOrDefault(id, BigDecimal.ZERO))));
+        return out;
+    }
+
+    // One round: at most one loan per applicant, so applicants are only read here. Returns
+    // loan_id -> new status; referred loans are left out.
+    private Map<Integer, String> evaluate(ExecutorService pool, List<Loan> round, Map<Integer, Applicant> applicants,
+                                          Map<String, LongAdder> hits) throws SQLException, InterruptedException {
+        List<List<Loan>> slices = new ArrayList<>();
+        for (int i = 0; i < cfg.parallelism; i++) slices.add(new ArrayList<>());
+        int i = 0;
+        for (Loan l : round) slices.get(i++ % cfg.parallelism).add(l);
+
+        Map<Integer, String> decisions = new ConcurrentHashMap<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (List<Loan> slice : slices) {
+            if (slice.isEmpty()) continue;
+            tasks.add(() -> {
+                for (Loan l : slice) {
+                    String status = decide(l, applicants.get(l.customerId), hits);
+                    if (status != null) decisions.put(l.loanId, status);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> f : pool.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw new SQLException("Loan rule evaluation failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return decisions;
+    }
+
+    // "Approved", "Rejected", or null to leave the loan Pending
+    private String decide(Loan loan, Applicant applicant, Map<String, LongAdder> hits) {
+        if (applicant == null) {
+            hits.computeIfAbsent(NO_ACCOUNTS, k -> new LongAdder()).increment();
+            return "Rejected";
+        }
+        for (Rule r : rules) {
+            Outcome o = r.check.check(loan, applicant);
+            if (o == null) continue;
+            hits.computeIfAbsent(r.name, k -> new LongAdder()).increment();
+            return o == Outcome.REJECT ? "Rejected" : null;
+        }
+        hits.computeIfAbsent(APPROVED, k -> new LongAdder()).increment();
+        return "Approved";
+    }
+
+    // loan_ids actually updated
+    private Set<Integer> write(Map<Integer, String> decisions) throws SQLException {
+        if (decisions.isEmpty()) return Set.of();
+        try (Connection con = DBConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try {
+                Set<Integer> updated = loanDAO.decide(con, new TreeMap<>(decisions));
+                con.commit();
+                return updated;
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            } finally { con.setAutoCommit(true); }
+        }
+    }
+
+    // java db.LoanDecisionEngine
+    //   -Dbms.loan.limits=home=5000000,car=1000000,...  (replaces the default limits)
+    public static void main(String[] args) throws Exception {
+        Config cfg = new Config();
+        cfg.pageSize = Integer.getInteger("bms.loan.pageSize", cfg.pageSize);
+        cfg.parallelism = Integer.getInteger("bms.loan.parallelism", cfg.parallelism);
+        cfg.historyDays = Integer.getInteger("bms.loan.historyDays", cfg.historyDays);
+        String limits = System.getProperty("bms.loan.limits");
+        if (limits != null) {
+            cfg.limits.clear();
+            for (String kv : limits.split(",")) {
+                String[] p = kv.split("=", 2);
+                cfg.limits.put(typeKey(p[0]), new BigDecimal(p[1].trim()));
+            }
+        }
+        String ratio = System.getProperty("bms.loan.minBalanceRatio");
+        if (ratio != null) cfg.minBalanceRatio = new BigDecimal(ratio);
+        ratio = System.getProperty("bms.loan.maxExposureRatio");
+        if (ratio != null) cfg.maxExposureRatio = new BigDecimal(ratio);
+        System.out.println(new LoanDecisionEngine(cfg).run());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,416 @@
+package db;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import db.DAOs.*;
+import db.Models.*;
+
+// Repayment (EMI) schedules for loans. Everything is long cents and basis points. The EMI is the
+// annuity payment rounded to the cent; each month's interest is the outstanding balance times the
+// monthly rate, rounded half up, and the last installment clears whatever rounding left over.
+// Schedules up to maxCachedMonths rows are kept per loan in an LRU cache, stored as two long[]
+// columns; an entry is only reused while the loan's amount, rate, tenure and start date still match,
+// so a rate change never serves a stale table. Longer schedules are generated row by row as they
+// are consumed.
+//
+// A floating loan is priced in segments kept in loan_reprice: when recomputeApproved() finds its
+// product rate changed, installments already due keep the old rate and EMI, and what is still owed
+// is re-amortized over the remaining months at the new one. Schedules of priced loans are built from
+// those segments, never from the product rate, so they always agree with the stored Loan.emi.
+public class LoanSchedules {
+
+    // One row, handed to consumers one at a time; the instance is reused, copy what you keep
+    public static class Installment {
+        public int number;
+        public LocalDate due;
+        public long paymentCents;
+        public long principalCents;
+        public long interestCents;
+        public long balanceCents;     // outstanding after this payment
+    }
+
+    public static class Schedule {
+        public final int loanId;
+        public final long emiCents;
+        public final long totalInterestCents;
+        final long principal;
+        final int rateBp;
+        final int rateFrom;
+        final int tenureMonths;
+        final LocalDate start;
+        private final long[] principalParts;
+        private final long[] interestParts;
+
+        Schedule(LoanTerms t, Pricing p, long emiCents, long[] principalParts, long[] interestParts) {
+            this.loanId = t.loanId;
+            this.principal = t.principalCents;
+            this.rateBp = p.currentRateBp();
+            this.rateFrom = p.currentFrom();
+            this.tenureMonths = t.tenureMonths;
+            this.start = t.startDate;
+            this.emiCents = emiCents;
+            this.principalParts = principalParts;
+            this.interestParts = interestParts;
+            long interest = 0;
+            for (long i : interestParts) interest += i;
+            this.totalInterestCents = interest;
+        }
+
+        public int installments() {
+            return principalParts.length;
+        }
+
+        public void forEach(Consumer<Installment> sink) {
+            Installment row = new Installment();
+            long balance = principal;
+            for (int k = 0; k < principalParts.length; k++) {
+                balance -= principalParts[k];
+                row.number = k + 1;
+                row.due = start.plusMonths(k + 1);
+                row.principalCents = principalParts[k];
+                row.interestCents = interestParts[k];
+                row.paymentCents = principalParts[k] + interestParts[k];
+                row.balanceCents = balance;
+                sink.accept(row);
+            }
+        }
+
+        boolean matches(LoanTerms t, int rateBp) {
+            return principal == t.principalCents && this.rateBp == rateBp && rateFrom == t.pricedFrom
+                    && tenureMonths == t.tenureMonths && start.equals(t.startDate);
+        }
+    }
+
+    // Rate segments of one loan: installments after from[j] are paid at rateBp[j]. A fixed or not yet
+    // priced loan has one segment from 0.
+    static final class Pricing {
+        final int[] from;
+        final int[] rateBp;
+
+        Pricing(int[] from, int[] rateBp) {
+            this.from = from;
+            this.rateBp = rateBp;
+        }
+
+        static Pricing flat(int rateBp) {
+            return new Pricing(new int[]{0}, new int[]{rateBp});
+        }
+
+        // Segments as loaded by LoanDAO.repricings, {from_installment, rate bp} in order
+        static Pricing of(List<int[]> segments) {
+            int[] from = new int[segments.size()];
+            int[] rateBp = new int[segments.size()];
+            for (int j = 0; j < from.length; j++) {
+                from[j] = segments.get(j)[0];
+                rateBp[j] = segments.get(j)[1];
+            }
+            return new Pricing(from, rateBp);
+        }
+
+        int currentRateBp() {
+            return rateBp[rateBp.length - 1];
+        }
+
+        int currentFrom() {
+            return from[from.length - 1];
+        }
+
+        // Same segments up to installment k, then rateBp; a segment starting at k is replaced
+        Pricing then(int k, int newRateBp) {
+            int keep = 0;
+            while (keep < from.length && from[keep] < k) keep++;
+            int[] f = Arrays.copyOf(from, keep + 1);
+            int[] r = Arrays.copyOf(rateBp, keep + 1);
+            f[keep] = k;
+            r[keep] = newRateBp;
+            return new Pricing(f, r);
+        }
+    }
+
+    public static class Report {
+        public long loans;
+        public long skipped;          // no rate configured for the loan type
+        public int pages;
+        public long millis;
+
+        @Override
+        public String toString() {
+            return String.format("%d approved loans rescheduled in %d pages (%d skipped, no rate), %d ms", loans, pages, skipped, millis);
+        }
+    }
+
+    private final LoanDAO loanDAO = new LoanDAO();
+    private final int maxCachedMonths;
+    private final Map<Integer, Schedule> cache;
+    private final ReferenceCache<Map<String, Integer>> rates;
+
+    public LoanSchedules(int cacheSize, int maxCachedMonths, long rateTtlMs) {
+        this.maxCachedMonths = maxCachedMonths;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<Integer, Schedule>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Schedule> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        this.rates = new ReferenceCache<>(rateTtlMs, () -> {
+            try (Connection con = DBConnection.getConnection()) {
+                return Collections.unmodifiableMap(loanDAO.rates(con));
+            }
+        });
+    }
+
+    // Level payment that repays principal over n months at rateBp a year, rounded to the cent. The
+    // annuity factor is the one floating-point step; the schedule itself is exact integer math.
+    static long emi(long principal, int rateBp, int months) {
+        if (months <= 0) throw new IllegalArgumentException("Tenure must be positive.");
+        if (rateBp == 0) return (principal + months - 1) / months;
+        double r = rateBp / 120_000.0;
+        double f = Math.pow(1 + r, months);
+        return Math.round(principal * r * f / (f - 1));
+    }
+
+    // Interest for one month on balance, rounded half up
+    static long monthlyInterest(long balance, int rateBp) {
+        return (Math.multiplyExact(balance, (long) rateBp) + 60_000) / 120_000;
+    }
+
+    // Row by row without holding the table; stops early if rounding pays the loan off sooner. Each
+    // segment re-amortizes the balance it starts with over the months left. Returns the last EMI.
+    static long generate(LoanTerms t, Pricing p, Consumer<Installment> sink) {
+        long emi = 0;
+        int rateBp = 0;
+        int seg = -1;
+        Installment row = new Installment();
+        long balance = t.principalCents;
+        for (int k = 1; k <= t.tenureMonths && balance > 0; k++) {
+            while (seg + 1 < p.from.length && p.from[seg + 1] < k) {
+                seg++;
+                rateBp = p.rateBp[seg];
+                emi = emi(balance, rateBp, t.tenureMonths - p.from[seg]);
+            }
+            long interest = monthlyInterest(balance, rateBp);
+            long principal = Math.min(balance, emi - interest);
+            if (k == t.tenureMonths) principal = balance;
+            balance -= principal;
+            row.number = k;
+            row.due = t.startDate.plusMonths(k);
+            row.principalCents = principal;
+            row.interestCents = interest;
+            row.paymentCents = principal + interest;
+            row.balanceCents = balance;
+            sink.accept(row);
+        }
+        return emi;
+    }
+
+    // Installments falling due on or before 'day'
+    static int installmentsDue(LoanTerms t, LocalDate day) {
+        int k = 0;
+        while (k < t.tenureMonths && !t.startDate.plusMonths(k + 1).isAfter(day)) k++;
+        return k;
+    }
+
+    private Schedule compute(LoanTerms t, Pricing p) {
+        long[] principal = new long[t.tenureMonths];
+        long[] interest = new long[t.tenureMonths];
+        int[] n = {0};
+        long emi = generate(t, p, row -> {
+            principal[n[0]] = row.principalCents;
+            interest[n[0]] = row.interestCents;
+            n[0]++;
+        });
+        long[] pp = n[0] == principal.length ? principal : Arrays.copyOf(principal, n[0]);
+        long[] i = n[0] == interest.length ? interest : Arrays.copyOf(interest, n[0]);
+        return new Schedule(t, p, emi, pp, i);
+    }
+
+    // Fixed rate if the loan has one, else the rate its EMI was priced with; only a floating loan
+    // that was never priced follows the product's current rate
+    int rateOf(LoanTerms t) throws SQLException {
+        if (t.fixedRateBp >= 0) return t.fixedRateBp;
+        if (t.pricedRateBp >= 0) return t.pricedRateBp;
+        Integer bp = rates.get().get(LoanDecisionEngine.typeKey(t.loanType));
+        if (bp == null) throw new IllegalArgumentException("No rate configured for loan type " + t.loanType + ".");
+        return bp;
+    }
+
+    private Pricing pricingOf(LoanTerms t, int rateBp) throws SQLException {
+        if (t.fixedRateBp >= 0 || t.pricedRateBp < 0) return Pricing.flat(rateBp);
+        List<int[]> segments;
+        try (Connection con = DBConnection.getConnection()) {
+            segments = loanDAO.repricings(con, Collections.singletonList(t.loanId)).get(t.loanId);
+        }
+        return segments == null ? Pricing.flat(rateBp) : Pricing.of(segments);
+    }
+
+    private static void requireScheduled(LoanTerms t) {
+        if (!"Approved".equals(t.status) || t.startDate == null) throw new IllegalArgumentException("Loan is not approved.");
+    }
+
+    // The whole table, cached; for tenures above maxCachedMonths use stream()
+    public Schedule schedule(LoanTerms t) throws SQLException {
+        requireScheduled(t);
+        int rateBp = rateOf(t);
+        Schedule s = cache.get(t.loanId);
+        if (s != null && s.matches(t, rateBp)) return s;
+        s = compute(t, pricingOf(t, rateBp));
+        if (t.tenureMonths <= maxCachedMonths) cache.put(t.loanId, s);
+        return s;
+    }
+
+    public void stream(LoanTerms t, Consumer<Installment> sink) throws SQLException {
+        requireScheduled(t);
+        int rateBp = rateOf(t);
+        if (t.tenureMonths <= maxCachedMonths) {
+            schedule(t).forEach(sink);
+            return;
+        }
+        generate(t, pricingOf(t, rateBp), sink);
+    }
+
+    // New floating rate for a product, then every approved loan's EMI is brought up to date
+    public Report changeRate(String loanType, BigDecimal annualRatePercent, int parallelism, int pageSize) throws SQLException, InterruptedException {
+        if (annualRatePercent.signum() < 0) throw new IllegalArgumentException("Rate must not be negative.");
+        try (Connection con = DBConnection.getConnection()) {
+            loanDAO.setRate(con, LoanDecisionEngine.typeKey(loanType), annualRatePercent);
+        }
+        rates.invalidate();
+        return recomputeApproved(parallelism, pageSize);
+    }
+
+    // Pages of approved loans; EMIs computed in parallel, written back with one batched UPDATE per page.
+    // A floating loan whose product rate moved gets a new segment from the first installment not yet
+    // due today; the product rates are read fresh, not from the cache.
+    public Report recomputeApproved(int parallelism, int pageSize) throws SQLException, InterruptedException {
+        if (parallelism <= 0 || pageSize <= 0) throw new IllegalArgumentException("parallelism and pageSize must be positive.");
+        long t0 = System.nanoTime();
+        Report rep = new Report();
+        try (Connection con = DBConnection.getConnection()) {
+            loanDAO.backfillStartDates(con);
+        }
+        rates.invalidate();
+        Map<String, Integer> rateTable = rates.get();
+        LocalDate today = LocalDate.now();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "bms-loan-schedules");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            int after = 0;
+            while (true) {
+                List<LoanTerms> page;
+                try (Connection con = DBConnection.getConnection()) {
+                    page = loanDAO.approvedPage(con, after, pageSize);
+                }
+                if (page.isEmpty()) break;
+                List<Integer> floating = new ArrayList<>();
+                for (LoanTerms t : page) if (t.fixedRateBp < 0 && t.pricedRateBp >= 0) floating.add(t.loanId);
+                Map<Integer, List<int[]>> priced;
+                try (Connection con = DBConnection.getConnection()) {
+                    priced = floating.isEmpty() ? Collections.emptyMap() : loanDAO.repricings(con, floating);
+                }
+                Map<Integer, Money> emis = Collections.synchronizedMap(new LinkedHashMap<>());
+                Map<Integer, int[]> segments = Collections.synchronizedMap(new LinkedHashMap<>());
+                List<Callable<Void>> tasks = new ArrayList<>();
+                int slice = (page.size() + parallelism - 1) / parallelism;
+                for (int from = 0; from < page.size(); from += slice) {
+                    List<LoanTerms> part = page.subList(from, Math.min(page.size(), from + slice));
+                    tasks.add(() -> {
+                        for (LoanTerms t : part) {
+                            if (t.fixedRateBp >= 0) {
+                                emis.put(t.loanId, Money.ofCents(emi(t.principalCents, t.fixedRateBp, t.tenureMonths)));
+                                continue;
+                            }
+                            Integer bp = rateTable.get(LoanDecisionEngine.typeKey(t.loanType));
+                            if (bp == null) continue;
+                            List<int[]> current = priced.get(t.loanId);
+                            Pricing p;
+                            if (current == null) {
+                                p = Pricing.flat(bp);
+                                segments.put(t.loanId, new int[]{0, bp});
+                            } else {
+                                p = Pricing.of(current);
+                                int k = Math.max(p.currentFrom(), installmentsDue(t, today));
+                                if (p.currentRateBp() != bp && k < t.tenureMonths) {
+                                    p = p.then(k, bp);
+                                    segments.put(t.loanId, new int[]{k, bp});
+                                }
+                            }
+                            emis.put(t.loanId, Money.ofCents(generate(t, p, row -> { })));
+                        }
+                        return null;
+                    });
+                }
+                for (Future<Void> f : pool.invokeAll(tasks)) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        throw new SQLException("Schedule computation failed: " + e.getCause().getMessage(), e.getCause());
+                    }
+                }
+                if (!emis.isEmpty()) {
+                    try (Connection con = DBConnection.getConnection()) {
+                        con.setAutoCommit(false);
+                        try {
+                            loanDAO.saveEmis(con, emis);
+                            if (!segments.isEmpty()) loanDAO.reprice(con, segments);
+                            con.commit();
+                        } catch (Exception e) {
+                            con.rollback();
+                            throw e;
+                        } finally { con.setAutoCommit(true); }
+                    }
+                }
+                for (LoanTerms t : page) cache.remove(t.loanId);
+                rep.pages++;
+                rep.loans += emis.size();
+                rep.skipped += page.size() - emis.size();
+                after = page.get(page.size() - 1).loanId;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        rep.millis = (System.nanoTime() - t0) / 1_000_000;
+        return rep;
+    }
+
+    // java db.LoanSchedules recompute
+    // java db.LoanSchedules rate <loan type> <annual %>
+    // java db.LoanSchedules show <loan_id>
+    public static void main(String[] args) throws Exception {
+        LoanSchedules schedules = new LoanSchedules(1, 480, 0);
+        int parallelism = Integer.getInteger("bms.loanSchedule.parallelism", 4);
+        int pageSize = Integer.getInteger("bms.loanSchedule.pageSize", 1_000);
+        String cmd = args.length > 0 ? args[0] : "recompute";
+        if (cmd.equals("rate") && args.length == 3) {
+            System.out.println(schedules.changeRate(args[1], new BigDecimal(args[2]), parallelism, pageSize));
+        } else if (cmd.equals("show") && args.length == 2) {
+            LoanTerms t;
+            try (Connection con = DBConnection.getConnection()) {
+                t = new LoanDAO().terms(con, Integer.parseInt(args[1]));
+            }
+            if (t == null) throw new IllegalArgumentException("Loan not found.");
+            schedules.stream(t, r -> System.out.printf("%4d %s %12s %12s %12s %14s%n", r.number, r.due,
+                    Money.ofCents(r.paymentCents), Money.ofCents(r.principalCents), Money.ofCents(r.interestCents), Money.ofCents(r.balanceCents)));
+        } else {
+            System.out.println(schedules.recomputeApproved(parallelism, pageSize));
+        }
+        System.exit(0);
+    }
+}
@@ -1,7 +1,9 @@
 package db;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 public class Models {
 
@@ -32,6 +34,7 @@ public class Models {
         public long accountNo;
         public BigDecimal balance;
         public int customerId;
+        public int nextTxnNo;
     }
 
     public static class Txn {
@@ -42,6 +45,27 @@ public class Models {
         public long accountNo;
     }
 
+    // Keyset position in an account's history: rows strictly older than (tnxDate, txnNo)
+    public static class TxnCursor {
+        public LocalDateTime tnxDate;
+        public int txnNo;
+    }
+
+    public static class TxnPage {
+        public List<Txn> rows;
+        public TxnCursor next;   // null when this is the last page
+    }
+
+    // One account-day of balance_snapshot
+    public static class BalanceSnapshot {
+        public long accountNo;
+        public LocalDate day;
+        public BigDecimal closingBalance;
+        public BigDecimal credits;
+        public BigDecimal debits;
+        public int txnCount;
+    }
+
     public static class Loan {
         public int loanId;
         public String loanType;
@@ -50,6 +74,33 @@ public class Models {
         public int customerId;
     }
 
+    // What a repayment schedule is computed from; amounts in cents, rates in basis points
+    public static class LoanTerms {
+        public int loanId;
+        public int customerId;
+        public String loanType;
+        public String status;
+        public long principalCents;
+        public int fixedRateBp = -1;     // -1: floating, follows loan_rate
+        public int tenureMonths;
+        public LocalDate startDate;      // null until approved
+        public int pricedRateBp = -1;    // floating: rate of the current EMI, -1 until LoanSchedules prices it
+        public int pricedFrom;           // floating: installments already due when that rate took over
+    }
+
+    // One outbox row; 0 stands for a NULL account, customer, peer or ref
+    public static class OutboxEvent {
+        public long eventId;
+        public String eventType;
+        public long accountNo;
+        public int customerId;
+        public long amountCents;
+        public long peerAccount;
+        public int refId;
+        public LocalDateTime createdAt;
+        public int attempts;             // failed delivery passes so far
+    }
+
     public static class Login {
         public int loginId;
         public String username;
@@ -0,0 +1,121 @@
+package db;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// An amount of money as a long count of cents, with the range of a DECIMAL(15,2) column. Used on
+// the posting path instead of BigDecimal: arithmetic is plain long math, checked for overflow
+// against the column range, and values reach JDBC through setLong/getLong. The SQL does the
+// scaling: bind with PARAM ("? * 0.01") and select with column(...) ("balance * 100"), both exact
+// decimal arithmetic in MySQL and H2. BigDecimal is only touched at the edges (parsing user input,
+// display) through of() and toBigDecimal().
+public final class Money implements Comparable<Money> {
+
+    // DECIMAL(15,2): 13 integer digits, 2 fraction digits
+    public static final long MAX_CENTS = 999_999_999_999_999L;
+
+    // SQL for a bound amount, see bind()
+    public static final String PARAM = "? * 0.01";
+
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        if (cents == 0) return ZERO;
+        return new Money(checkRange(cents));
+    }
+
+    // Rounds to cents the way MySQL stores a value into DECIMAL(15,2): half away from zero.
+    // This is where user input enters, so a value out of range is a rejected amount, not an overflow.
+    public static Money of(BigDecimal amount) {
+        BigDecimal c = amount.setScale(2, RoundingMode.HALF_UP).movePointRight(2);
+        if (c.abs().compareTo(BigDecimal.valueOf(MAX_CENTS)) > 0) throw new IllegalArgumentException("Amount is too large.");
+        return ofCents(c.longValueExact());
+    }
+
+    public static Money parse(String amount) {
+        return of(new BigDecimal(amount.trim()));
+    }
+
+    // Reads a column selected as column(...)
+    public static Money read(ResultSet rs, int index) throws SQLException {
+        return ofCents(rs.getLong(index));
+    }
+
+    public static String column(String name) {
+        return name + " * 100";
+    }
+
+    // Binds to a placeholder written as PARAM
+    public void bind(PreparedStatement ps, int index) throws SQLException {
+        ps.setLong(index, cents);
+    }
+
+    public long cents() {
+        return cents;
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(cents, other.cents));
+    }
+
+    public Money times(long factor) {
+        return ofCents(Math.multiplyExact(cents, factor));
+    }
+
+    public Money negate() {
+        return ofCents(-cents);
+    }
+
+    public boolean isPositive() {
+        return cents > 0;
+    }
+
+    public boolean isNegative() {
+        return cents < 0;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    private static long checkRange(long cents) {
+        if (cents > MAX_CENTS || cents < -MAX_CENTS) throw new ArithmeticException("Amount out of DECIMAL(15,2) range: " + cents + " cents");
+        return cents;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    // Same text as the DECIMAL(15,2) column, e.g. "-12.05"
+    @Override
+    public String toString() {
+        long abs = Math.abs(cents);
+        long frac = abs % 100;
+        return (cents < 0 ? "-" : "") + abs / 100 + (frac < 10 ? ".0" : ".") + frac;
+    }
+}
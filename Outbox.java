@@ -0,0 +1,348 @@
+package db;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import db.DAOs.*;
+import db.Models.*;
+
+// Transactional outbox. Every mutation inserts an outbox row in the transaction that makes the change,
+// so an event exists exactly when its change committed. The dispatcher reads the oldest rows in
+// batches, hands them to the sinks, and deletes the ones every sink took. Delivery is at least once:
+// a crash between publishing and deleting publishes those events again, so consumers dedupe on
+// eventId. Events are split into lanes by account (by customer when there is no account); a lane
+// publishes in event_id order and, when a sink fails, holds back the rest of that account's events
+// until the next pass, so each account's events arrive in the order they were committed.
+// An event that keeps failing while the sinks take other events is parked after maxAttempts passes:
+// it stays in the table with attempts at the limit (reset attempts to replay it) and the account's
+// later events go ahead, so one bad event cannot hold back its account, or fill every batch, forever.
+// Run one dispatcher at a time.
+public class Outbox {
+
+    // Event types
+    public static final String SIGN_UP = "SignUp";
+    public static final String DEPOSIT = "Deposit";
+    public static final String WITHDRAW = "Withdraw";
+    public static final String TRANSFER_OUT = "TransferOut";
+    public static final String TRANSFER_IN = "TransferIn";
+    public static final String REFUND = "Refund";                      // ledger undid a transfer's debit...
+    public static final String TRANSFER_REVERSED = "TransferReversed"; // ...and its credit
+    public static final String LOAN_APPLIED = "LoanApplied";
+    public static final String ACCOUNT_CLOSED = "AccountClosed";
+
+    public static OutboxEvent posting(String type, long accountNo, Money amount, long peerAccount) {
+        OutboxEvent e = new OutboxEvent();
+        e.eventType = type;
+        e.accountNo = accountNo;
+        e.amountCents = amount.cents();
+        e.peerAccount = peerAccount;
+        return e;
+    }
+
+    public static OutboxEvent customer(String type, int customerId, long accountNo) {
+        OutboxEvent e = new OutboxEvent();
+        e.eventType = type;
+        e.customerId = customerId;
+        e.accountNo = accountNo;
+        return e;
+    }
+
+    public interface Sink {
+        // Called from several lanes at once; one lane's calls are in order
+        void publish(OutboxEvent e) throws IOException;
+
+        // Everything published so far must be durable when this returns; rows are deleted after it
+        default void flush() throws IOException { }
+    }
+
+    // Listeners in this JVM, e.g. alerting
+    public static class InProcessSink implements Sink {
+        private final List<Consumer<OutboxEvent>> listeners = new CopyOnWriteArrayList<>();
+
+        public void subscribe(Consumer<OutboxEvent> listener) {
+            listeners.add(listener);
+        }
+
+        public void unsubscribe(Consumer<OutboxEvent> listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public void publish(OutboxEvent e) throws IOException {
+            for (Consumer<OutboxEvent> l : listeners) {
+                try {
+                    l.accept(e);
+                } catch (RuntimeException ex) {
+                    throw new IOException("Listener failed on event " + e.eventId + ": " + ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+
+    // One JSON object per line, in events-<date>.jsonl under dir; the file is forced on flush
+    public static class FileSink implements Sink {
+        private final Path dir;
+        private LocalDate day;
+        private FileChannel channel;
+        private BufferedWriter out;
+
+        public FileSink(Path dir) throws IOException {
+            this.dir = Files.createDirectories(dir);
+        }
+
+        @Override
+        public synchronized void publish(OutboxEvent e) throws IOException {
+            LocalDate today = LocalDate.now();
+            if (!today.equals(day)) roll(today);
+            out.write(json(e));
+            out.write('\n');
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (out == null) return;
+            out.flush();
+            channel.force(false);
+        }
+
+        private void roll(LocalDate today) throws IOException {
+            flush();
+            if (out != null) out.close();
+            channel = FileChannel.open(dir.resolve("events-" + today + ".jsonl"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16);
+            day = today;
+        }
+
+        static String json(OutboxEvent e) {
+            StringBuilder sb = new StringBuilder(160);
+            sb.append("{\"eventId\":").append(e.eventId).append(",\"type\":\"").append(e.eventType).append('"');
+            if (e.accountNo != 0) sb.append(",\"accountNo\":").append(e.accountNo);
+            if (e.customerId != 0) sb.append(",\"customerId\":").append(e.customerId);
+            if (e.amountCents != 0) sb.append(",\"amount\":\"").append(Money.ofCents(e.amountCents)).append('"');
+            if (e.peerAccount != 0) sb.append(",\"peerAccount\":").append(e.peerAccount);
+            if (e.refId != 0) sb.append(",\"refId\":").append(e.refId);
+            return sb.append(",\"createdAt\":\"").append(e.createdAt).append("\"}").toString();
+        }
+    }
+
+    public static class Config {
+        public int batchSize = 500;
+        public int lanes = 4;
+        public long pollIntervalMs = 200;    // idle wait when the outbox is drained
+        public long retryBackoffMs = 1_000;  // wait after a pass with failures
+        public int maxAttempts = 10;         // failed passes before an event is parked
+    }
+
+    public static class Stats {
+        public long published;
+        public long pruned;
+        public long failures;
+        public long parked;
+        public long passes;
+        public long lagMs;          // age of the oldest undelivered event at the last pass
+        public long maxLagMs;
+        public double eventsPerSecond;   // since the dispatcher started
+
+        @Override
+        public String toString() {
+            return String.format("published=%d pruned=%d failures=%d parked=%d passes=%d lagMs=%d maxLagMs=%d events/s=%.0f",
+                    published, pruned, failures, parked, passes, lagMs, maxLagMs, eventsPerSecond);
+        }
+    }
+
+    private final Config cfg;
+    private final List<Sink> sinks;
+    private final OutboxDAO outboxDAO = new OutboxDAO();
+    private final ExecutorService pool;
+    private final long startedNanos = System.nanoTime();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong pruned = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong parked = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong lagMs = new AtomicLong();
+    private final AtomicLong maxLagMs = new AtomicLong();
+
+    public Outbox(Config cfg, List<Sink> sinks) {
+        if (cfg.batchSize <= 0 || cfg.lanes <= 0 || cfg.maxAttempts <= 0) {
+            throw new IllegalArgumentException("batchSize, lanes and maxAttempts must be positive.");
+        }
+        if (sinks.isEmpty()) throw new IllegalArgumentException("At least one sink is required.");
+        this.cfg = cfg;
+        this.sinks = List.copyOf(sinks);
+        this.pool = Executors.newFixedThreadPool(cfg.lanes, r -> {
+            Thread t = new Thread(r, "bms-outbox-lane");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Ordering key: the account, or the customer for events without one
+    private static long key(OutboxEvent e) {
+        return e.accountNo != 0 ? e.accountNo : -e.customerId;
+    }
+
+    // One batch; returns how many events were delivered and deleted
+    public int dispatchOnce() throws SQLException, InterruptedException {
+        List<OutboxEvent> batch;
+        try (Connection con = DBConnection.getConnection()) {
+            batch = outboxDAO.head(con, cfg.batchSize, cfg.maxAttempts);
+        }
+        passes.incrementAndGet();
+        if (batch.isEmpty()) {
+            lagMs.set(0);
+            return 0;
+        }
+        long lag = Math.max(0, Duration.between(batch.get(0).createdAt, LocalDateTime.now()).toMillis());
+        lagMs.set(lag);
+        maxLagMs.accumulateAndGet(lag, Math::max);
+
+        List<List<OutboxEvent>> lanes = new ArrayList<>();
+        for (int i = 0; i < cfg.lanes; i++) lanes.add(new ArrayList<>());
+        for (OutboxEvent e : batch) lanes.get((int) Math.floorMod(key(e), (long) cfg.lanes)).add(e);
+
+        Queue<OutboxEvent> failed = new ConcurrentLinkedQueue<>();
+        List<Callable<List<Long>>> tasks = new ArrayList<>();
+        for (List<OutboxEvent> lane : lanes) {
+            if (!lane.isEmpty()) tasks.add(() -> publishLane(lane, failed));
+        }
+        List<Long> delivered = new ArrayList<>(batch.size());
+        for (Future<List<Long>> f : pool.invokeAll(tasks)) {
+            try {
+                delivered.addAll(f.get());
+            } catch (ExecutionException e) {
+                throw new SQLException("Outbox lane failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        if (delivered.isEmpty()) return 0;
+        for (Sink s : sinks) {
+            try {
+                s.flush();
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                System.out.println("Outbox sink flush failed, batch will be published again: " + e.getMessage());
+                return 0;
+            }
+        }
+        // The sinks took other events this pass, so these failures are the events' own: count them
+        List<Long> failedIds = new ArrayList<>(failed.size());
+        for (OutboxEvent e : failed) {
+            failedIds.add(e.eventId);
+            if (e.attempts + 1 >= cfg.maxAttempts) {
+                parked.incrementAndGet();
+                System.out.println("Outbox event " + e.eventId + " parked after " + cfg.maxAttempts + " failed attempts.");
+            }
+        }
+        try (Connection con = DBConnection.getConnection()) {
+            pruned.addAndGet(outboxDAO.delete(con, delivered));
+            outboxDAO.addAttempt(con, failedIds);
+        }
+        published.addAndGet(delivered.size());
+        return delivered.size();
+    }
+
+    // In event_id order; after a failure, later events of the same key wait for the next pass
+    private List<Long> publishLane(List<OutboxEvent> lane, Queue<OutboxEvent> failed) {
+        List<Long> delivered = new ArrayList<>(lane.size());
+        Set<Long> blocked = new HashSet<>();
+        for (OutboxEvent e : lane) {
+            long key = key(e);
+            if (blocked.contains(key)) continue;
+            try {
+                for (Sink s : sinks) s.publish(e);
+                delivered.add(e.eventId);
+            } catch (IOException ex) {
+                failures.incrementAndGet();
+                blocked.add(key);
+                failed.add(e);
+                System.out.println("Outbox event " + e.eventId + " not delivered, retrying: " + ex.getMessage());
+            }
+        }
+        return delivered;
+    }
+
+    // Drains in full batches, then polls every pollIntervalMs
+    public Thread start() {
+        Thread t = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                long wait;
+                try {
+                    int n = dispatchOnce();
+                    wait = n == cfg.batchSize ? 0 : cfg.pollIntervalMs;
+                } catch (SQLException e) {
+                    System.out.println("Outbox pass failed, retrying: " + e.getMessage());
+                    wait = cfg.retryBackoffMs;
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (wait == 0) continue;
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "bms-outbox");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    public Stats stats() {
+        Stats st = new Stats();
+        st.published = published.get();
+        st.pruned = pruned.get();
+        st.failures = failures.get();
+        st.parked = parked.get();
+        st.passes = passes.get();
+        st.lagMs = lagMs.get();
+        st.maxLagMs = maxLagMs.get();
+        double secs = (System.nanoTime() - startedNanos) / 1e9;
+        st.eventsPerSecond = secs > 0 ? st.published / secs : 0;
+        return st;
+    }
+
+    // java db.Outbox [dir]   dispatches to JSON-lines files until stopped, printing stats every 10 s
+    public static void main(String[] args) throws Exception {
+        Config cfg = new Config();
+        cfg.batchSize = Integer.getInteger("bms.outbox.batchSize", cfg.batchSize);
+        cfg.lanes = Integer.getInteger("bms.outbox.lanes", cfg.lanes);
+        cfg.pollIntervalMs = Long.getLong("bms.outbox.pollMs", cfg.pollIntervalMs);
+        cfg.maxAttempts = Integer.getInteger("bms.outbox.maxAttempts", cfg.maxAttempts);
+        Path dir = Paths.get(args.length > 0 ? args[0] : System.getProperty("bms.outbox.dir", "outbox"));
+        Outbox outbox = new Outbox(cfg, List.of(new FileSink(dir)));
+        outbox.start();
+        while (true) {
+            Thread.sleep(10_000);
+            System.out.println(outbox.stats());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package db;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Whole-table snapshot of reference data (branches, employees) that changes a few times a year.
+// Readers share one immutable value until it is older than the TTL or invalidate() is called; a
+// reload is single-flight, so an expiry under load costs one query, not one per caller. The TTL
+// matches the backend's "reference" cache region, so both apps converge on the same view.
+// getOrStale() is for hot paths that must not wait on, or fail with, the database: an expired value
+// keeps being served while a background thread reloads it.
+public class ReferenceCache<T> {
+
+    public interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    public static class Stats {
+        public long hits;
+        public long misses;
+        public long loads;
+        public long invalidations;
+        public long staleServed;
+        public long reloadFailures;
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hitRate=%.1f%% loads=%d invalidations=%d staleServed=%d reloadFailures=%d",
+                    hits, misses, hitRate() * 100, loads, invalidations, staleServed, reloadFailures);
+        }
+    }
+
+    private static final class Snapshot<T> {
+        final T value;
+        final long loadedAt;
+        final long generation;
+
+        Snapshot(T value, long loadedAt, long generation) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+            this.generation = generation;
+        }
+    }
+
+    private final Loader<T> loader;
+    private final long ttlNanos;
+    private final Object reloadLock = new Object();
+    private volatile Snapshot<T> snapshot;
+    private volatile long generation;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+    private volatile long retryAt = System.nanoTime();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+
+    public ReferenceCache(long ttlMs, Loader<T> loader) {
+        this.loader = loader;
+        this.ttlNanos = ttlMs * 1_000_000L;
+    }
+
+    public T get() throws SQLException {
+        Snapshot<T> s = snapshot;
+        if (fresh(s)) {
+            hits.increment();
+            return s.value;
+        }
+        misses.increment();
+        synchronized (reloadLock) {
+            s = snapshot;
+            if (fresh(s)) return s.value;   // another caller reloaded while we waited
+            long gen = generation;
+            T value = loader.load();
+            loads.increment();
+            s = new Snapshot<>(value, System.nanoTime(), gen);
+            // an invalidate() during the load means the value may already be stale: hand it out once, don't keep it
+            if (generation == gen) snapshot = s;
+            return value;
+        }
+    }
+
+    // Reloads unless the current value is less than minAgeMs old. For callers that did not find an
+    // entry: lookups of an id that does not exist cost at most one query per minAgeMs.
+    public T refresh(long minAgeMs) throws SQLException {
+        synchronized (reloadLock) {
+            Snapshot<T> s = snapshot;
+            if (s != null && s.generation == generation && System.nanoTime() - s.loadedAt < minAgeMs * 1_000_000L) {
+                return s.value;
+            }
+            invalidate();
+            return get();
+        }
+    }
+
+    // Stale-while-revalidate: past the TTL the current value is still returned and one background
+    // thread reloads it. A failed reload keeps the old value and is retried after retryMs. Only the
+    // first load, or the first after invalidate(), runs on the caller's thread.
+    public T getOrStale(long retryMs) throws SQLException {
+        Snapshot<T> s = snapshot;
+        if (fresh(s)) {
+            hits.increment();
+            return s.value;
+        }
+        if (s == null || s.generation != generation) return get();
+        staleServed.increment();
+        if (System.nanoTime() - retryAt >= 0 && reloading.compareAndSet(false, true)) {
+            Thread t = new Thread(() -> reloadInBackground(retryMs), "bms-reference-reload");
+            t.setDaemon(true);
+            t.start();
+        }
+        return s.value;
+    }
+
+    private void reloadInBackground(long retryMs) {
+        try {
+            synchronized (reloadLock) {
+                if (fresh(snapshot)) return;
+                long gen = generation;
+                T value = loader.load();
+                loads.increment();
+                if (generation == gen) snapshot = new Snapshot<>(value, System.nanoTime(), gen);
+            }
+        } catch (SQLException | RuntimeException e) {
+            reloadFailures.increment();
+            retryAt = System.nanoTime() + retryMs * 1_000_000L;
+            System.out.println("Reference data reload failed, keeping the previous snapshot: " + e.getMessage());
+        } finally {
+            reloading.set(false);
+        }
+    }
+
+    // Call after writing the underlying table
+    public void invalidate() {
+        generation++;
+        snapshot = null;
+        invalidations.increment();
+    }
+
+    private boolean fresh(Snapshot<T> s) {
+        return s != null && s.generation == generation && System.nanoTime() - s.loadedAt < ttlNanos;
+    }
+
+    public Stats stats() {
+        Stats st = new Stats();
+        st.hits = hits.sum();
+        st.misses = misses.sum();
+        st.loads = loads.sum();
+        st.invalidations = invalidations.sum();
+        st.staleServed = staleServed.sum();
+        st.reloadFailures = reloadFailures.sum();
+        return st;
+    }
+}
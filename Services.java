@@ -1,9 +1,19 @@
 package db;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.function.Consumer;
 
 import db.DAOs.*;
 import db.Models.*;
@@ -15,7 +25,129 @@ public class Services {
     private final TxnDAO txnDAO = new TxnDAO();
     private final LoginDAO loginDAO = new LoginDAO();
     private final LoanDAO loanDAO = new LoanDAO();
-    private final EmployeeDAO employeeDAO = new EmployeeDAO();
+    private final TransferEngine transferEngine = new TransferEngine();
+    private final BalanceSnapshots balanceSnapshots = new BalanceSnapshots();
+    private final OutboxDAO outboxDAO = new OutboxDAO();
+    // Shared by every Services instance in the JVM so any writer's invalidation reaches every reader
+    private static final BalanceCache BALANCE_CACHE = new BalanceCache(
+            Integer.getInteger("bms.balanceCache.size", 100_000), Long.getLong("bms.balanceCache.ttlMs", 30_000));
+    // Logins: hashing cost is paid here, sessions make every later request a map lookup
+    private static final PasswordHasher HASHER = new PasswordHasher(Integer.getInteger("bms.auth.pbkdf2Iterations", 210_000));
+    private static final SessionStore SESSIONS = new SessionStore(Integer.getInteger("bms.session.max", 100_000),
+            Long.getLong("bms.session.idleMs", 15 * 60_000L), Long.getLong("bms.session.maxAgeMs", 8 * 3_600_000L));
+    // Reference data; -Dbms.refCache.ttlMs matches the backend's "reference" cache region (1 hour)
+    private static final long REF_TTL_MS = Long.getLong("bms.refCache.ttlMs", 3_600_000);
+    private static final long BRANCH_MISS_RELOAD_MS = 30_000;
+    private static final ReferenceCache<List<Employee>> EMPLOYEES = new ReferenceCache<>(REF_TTL_MS, () -> {
+        try (Connection con = DBConnection.getConnection()) {
+            return Collections.unmodifiableList(new EmployeeDAO().listAll(con));
+        }
+    });
+    private static final ReferenceCache<Map<Integer, Branch>> BRANCHES = new ReferenceCache<>(REF_TTL_MS, () -> {
+        try (Connection con = DBConnection.getConnection()) {
+            Map<Integer, Branch> byId = new HashMap<>();
+            for (Branch b : new BranchDAO().listAll(con)) byId.put(b.branchId, b);
+            return Collections.unmodifiableMap(byId);
+        }
+    });
+    // Txn rows older than the archive horizon live in segment files here, see TxnArchive
+    private static final TxnArchive ARCHIVE = new TxnArchive(Paths.get(System.getProperty("bms.archive.dir", "archive")));
+    // Repayment schedules; product rates are reference data and share its TTL
+    private static final LoanSchedules LOAN_SCHEDULES = new LoanSchedules(Integer.getInteger("bms.loanSchedule.cacheSize", 10_000),
+            Integer.getInteger("bms.loanSchedule.maxCachedMonths", 480), REF_TTL_MS);
+    // Peak-hours mode (-Dbms.ledger.enabled=true): postings go through the in-memory ledger and reach
+    // Account/Txn via its write-behind; null otherwise
+    private static final LedgerEngine LEDGER = startLedger();
+
+    // -Dbms.groupCommit.enabled=true: deposits, withdrawals and transfers share commits; null otherwise
+    private static final GroupCommit GROUP_COMMIT = startGroupCommit();
+
+    // -Dbms.snapshot.intervalMs=N keeps balance_snapshot current from this JVM; otherwise run
+    // db.BalanceSnapshots on a schedule
+    static {
+        long interval = Long.getLong("bms.snapshot.intervalMs", 0);
+        if (interval > 0) new BalanceSnapshots().startBackground(interval, Integer.getInteger("bms.snapshot.batchSize", 500));
+    }
+
+    // Outbox events for listeners in this JVM; delivered only while OUTBOX runs here
+    private static final Outbox.InProcessSink EVENTS = new Outbox.InProcessSink();
+
+    // -Dbms.outbox.intervalMs=N dispatches outbox events from this JVM (to EVENTS, and to JSON-lines
+    // files when -Dbms.outbox.dir is set); otherwise run db.Outbox as its own process
+    private static final Outbox OUTBOX = startOutbox();
+
+    private static Outbox startOutbox() {
+        long interval = Long.getLong("bms.outbox.intervalMs", 0);
+        if (interval <= 0) return null;
+        Outbox.Config cfg = new Outbox.Config();
+        cfg.pollIntervalMs = interval;
+        cfg.batchSize = Integer.getInteger("bms.outbox.batchSize", cfg.batchSize);
+        cfg.lanes = Integer.getInteger("bms.outbox.lanes", cfg.lanes);
+        cfg.maxAttempts = Integer.getInteger("bms.outbox.maxAttempts", cfg.maxAttempts);
+        List<Outbox.Sink> sinks = new ArrayList<>();
+        sinks.add(EVENTS);
+        String dir = System.getProperty("bms.outbox.dir");
+        try {
+            if (dir != null) sinks.add(new Outbox.FileSink(Paths.get(dir)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the outbox directory: " + e.getMessage(), e);
+        }
+        Outbox outbox = new Outbox(cfg, sinks);
+        outbox.start();
+        return outbox;
+    }
+
+    // -Dbms.velocity.enabled=true: withdrawals and outgoing transfers are capped per account tier
+    // (velocity_limit) over a sliding window, in memory, before they reach the database
+    private static final VelocityLimiter VELOCITY = startVelocity();
+
+    private static VelocityLimiter startVelocity() {
+        if (!Boolean.getBoolean("bms.velocity.enabled")) return null;
+        VelocityLimiter.Config cfg = new VelocityLimiter.Config();
+        cfg.windowMs = Long.getLong("bms.velocity.windowMs", cfg.windowMs);
+        cfg.buckets = Integer.getInteger("bms.velocity.buckets", cfg.buckets);
+        cfg.maxAccounts = Integer.getInteger("bms.velocity.maxAccounts", cfg.maxAccounts);
+        cfg.tierTtlMs = Long.getLong("bms.velocity.tierTtlMs", cfg.tierTtlMs);
+        cfg.reloadRetryMs = Long.getLong("bms.velocity.reloadRetryMs", cfg.reloadRetryMs);
+        VelocityLimiter limiter = VelocityLimiter.fromDatabase(cfg);
+        try {
+            limiter.warm();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not warm the velocity limiter: " + e.getMessage(), e);
+        }
+        return limiter;
+    }
+
+    private static GroupCommit startGroupCommit() {
+        if (!Boolean.getBoolean("bms.groupCommit.enabled")) return null;
+        GroupCommit.Config cfg = new GroupCommit.Config();
+        cfg.maxBatch = Integer.getInteger("bms.groupCommit.maxBatch", cfg.maxBatch);
+        cfg.windowMicros = Long.getLong("bms.groupCommit.windowMicros", cfg.windowMicros);
+        return new GroupCommit(cfg);
+    }
+
+    private static LedgerEngine startLedger() {
+        if (!Boolean.getBoolean("bms.ledger.enabled")) return null;
+        LedgerEngine.Config cfg = new LedgerEngine.Config();
+        cfg.shards = Integer.getInteger("bms.ledger.shards", cfg.shards);
+        cfg.journalDir = java.nio.file.Paths.get(System.getProperty("bms.ledger.dir", cfg.journalDir.toString()));
+        cfg.flushBatch = Integer.getInteger("bms.ledger.flushBatch", cfg.flushBatch);
+        cfg.flushIntervalMs = Long.getLong("bms.ledger.flushIntervalMs", cfg.flushIntervalMs);
+        cfg.awaitTimeoutMs = Long.getLong("bms.ledger.awaitTimeoutMs", cfg.awaitTimeoutMs);
+        try {
+            LedgerEngine ledger = LedgerEngine.start(cfg);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    ledger.close();
+                } catch (SQLException e) {
+                    System.err.println("Ledger shutdown: " + e.getMessage());
+                }
+            }, "bms-ledger-shutdown"));
+            return ledger;
+        } catch (SQLException | java.io.IOException e) {
+            throw new IllegalStateException("Could not start the ledger: " + e.getMessage(), e);
+        }
+    }
 
     // Sign-up
     public static class SignUpResult {
@@ -26,6 +158,14 @@ public class Services {
     }
 
     public SignUpResult createCustomerAccount(String name, String email, String phone, String address, int branchId) throws SQLException {
+        requireBranch(branchId);
+        // Hash before borrowing a connection; PBKDF2 is deliberately slow. IDs too: a block refill
+        // borrows its own connection, which must not wait while this one is held.
+        String password = genPassword();
+        String passwordHash = HASHER.hash(password);
+        int customerId = Ids.nextCustomerId();
+        long accNo = Ids.nextAccountNo();
+        int loginId = Ids.nextLoginId();
         try (Connection con = DBConnection.getConnection()) {
             con.setAutoCommit(false);
             try {
@@ -36,18 +176,19 @@ public class Services {
                 c.phone = phone;
                 c.address = address;
                 c.branchId = branchId;
-                int customerId = customerDAO.insertCustomer(con, c);
+                customerDAO.insertCustomer(con, customerId, c);
 
                 // 2) Create Account with 0 balance
-                long accNo = accountDAO.createAccount(con, customerId);
+                accountDAO.createAccount(con, accNo, customerId);
 
                 // 3) Create Login
                 String username = genUsername(name, customerId);
-                String password = genPassword();
 
-                loginDAO.createLogin(con, customerId, username, password);
+                loginDAO.createLogin(con, loginId, customerId, username, passwordHash);
+                outboxDAO.add(con, Outbox.customer(Outbox.SIGN_UP, customerId, accNo));
 
                 con.commit();
+                if (LEDGER != null) LEDGER.openAccount(accNo);
 
                 SignUpResult r = new SignUpResult();
                 r.customerId = customerId;
@@ -64,10 +205,20 @@ public class Services {
         }
     }
 
+    // Rejects unknown branches before opening a transaction; a miss reloads in case another process added
+    // the branch, at most once per BRANCH_MISS_RELOAD_MS
+    private static void requireBranch(int branchId) throws SQLException {
+        if (BRANCHES.get().containsKey(branchId)) return;
+        if (!BRANCHES.refresh(BRANCH_MISS_RELOAD_MS).containsKey(branchId)) throw new IllegalArgumentException("Branch not found.");
+    }
+
+    // The "_" keeps name and id apart ("ab" + 12 and "ab1" + 2 used to both give "ab12"); the
+    // customer id is unique, so the username is too
     private static String genUsername(String name, int id) {
-        String base = name.trim().toLowerCase().replaceAll("\\s+", "");
+        String base = name.trim().toLowerCase().replaceAll("[^a-z0-9]", "");
+        if (base.isEmpty()) base = "user";
         if (base.length() > 10) base = base.substring(0, 10);
-        return base + id;
+        return base + "_" + id;
     }
 
     private static String genPassword() {
@@ -80,47 +231,141 @@ public class Services {
 
     // Auth
     public Integer login(String username, String password) throws SQLException {
+        Login l = authenticate(username, password);
+        return l == null ? null : l.customerId;
+    }
+
+    // Verifies the password once and opens a session; null on bad credentials
+    public SessionStore.Session openSession(String username, String password) throws SQLException {
+        Login l = authenticate(username, password);
+        if (l == null) return null;
+        List<Long> accounts;
         try (Connection con = DBConnection.getConnection()) {
-            return new LoginDAO().auth(con, username, password);
+            accounts = accountDAO.listByCustomer(con, l.customerId);
         }
+        return SESSIONS.open(l.customerId, new HashSet<>(accounts));
     }
 
-    // Banking operations
-    public BigDecimal checkBalance(long accountNo) throws SQLException {
+    public SessionStore.Session requireSession(String token) {
+        SessionStore.Session s = SESSIONS.get(token);
+        if (s == null) throw new IllegalArgumentException("Session expired. Please log in again.");
+        return s;
+    }
+
+    // In-memory check that the session's customer owns the account
+    public SessionStore.Session authorize(String token, long accountNo) {
+        SessionStore.Session s = requireSession(token);
+        if (!s.owns(accountNo)) throw new IllegalArgumentException("Not authorized for this account.");
+        return s;
+    }
+
+    public void logout(String token) {
+        SESSIONS.close(token);
+    }
+
+    public SessionStore.Stats sessionStats() {
+        return SESSIONS.stats();
+    }
+
+    private Login authenticate(String username, String password) throws SQLException {
+        Login l;
         try (Connection con = DBConnection.getConnection()) {
-            return accountDAO.getBalance(con, accountNo);
+            l = loginDAO.findByUsername(con, username);
         }
+        if (l == null) {
+            HASHER.hash(password);  // same cost as a wrong password, so timing does not reveal usernames
+            return null;
+        }
+        if (!HASHER.verify(password, l.password)) return null;
+        if (HASHER.needsRehash(l.password)) {
+            String upgraded = HASHER.hash(password);
+            try (Connection con = DBConnection.getConnection()) {
+                loginDAO.updatePassword(con, l.loginId, upgraded);
+            }
+        }
+        return l;
+    }
+
+    // Banking operations
+    public BigDecimal checkBalance(long accountNo) throws SQLException {
+        if (LEDGER != null) return LEDGER.balance(accountNo);
+        return BALANCE_CACHE.get(accountNo, acc -> {
+            try (Connection con = DBConnection.getConnection()) {
+                return accountDAO.getBalance(con, acc);
+            }
+        });
+    }
+
+    // Balance at the end of a past day, from the nearest daily snapshot; with the ledger enabled,
+    // postings still in its write-behind queue are not visible yet
+    public BigDecimal balanceAsOf(long accountNo, LocalDate day) throws SQLException {
+        BigDecimal b = balanceSnapshots.balanceAsOf(accountNo, day);
+        if (b == null) throw new IllegalArgumentException("Account not found.");
+        return b;
+    }
+
+    public BalanceCache.Stats balanceCacheStats() {
+        return BALANCE_CACHE.stats();
     }
 
     public void deposit(long accountNo, BigDecimal amount) throws SQLException {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) throw new IllegalArgumentException("Amount must be positive.");
-        try (Connection con = DBConnection.getConnection()) {
-            con.setAutoCommit(false);
-            try {
-                if (!accountDAO.exists(con, accountNo)) throw new IllegalArgumentException("Account not found.");
-                BigDecimal bal = accountDAO.getBalance(con, accountNo);
-                BigDecimal newBal = bal.add(amount);
-                accountDAO.setBalance(con, accountNo, newBal);
+        deposit(accountNo, Money.of(amount));
+    }
+
+    public void deposit(long accountNo, Money amount) throws SQLException {
+        if (!amount.isPositive()) throw new IllegalArgumentException("Amount must be positive.");
+        if (LEDGER != null) {
+            LEDGER.deposit(accountNo, amount);
+            return;
+        }
+        try {
+            inTransaction(con -> {
+                if (!accountDAO.credit(con, accountNo, amount)) throw new IllegalArgumentException("Account not found.");
                 txnDAO.insertTxn(con, accountNo, "Deposit", amount);
-                con.commit();
-            } catch (Exception e) {
-                con.rollback();
-                throw e;
-            } finally { con.setAutoCommit(true); }
+                outboxDAO.add(con, Outbox.posting(Outbox.DEPOSIT, accountNo, amount, 0));
+            });
+        } finally {
+            BALANCE_CACHE.invalidate(accountNo); // after commit
         }
     }
 
     public void withdraw(long accountNo, BigDecimal amount) throws SQLException {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) throw new IllegalArgumentException("Amount must be positive.");
+        withdraw(accountNo, Money.of(amount));
+    }
+
+    public void withdraw(long accountNo, Money amount) throws SQLException {
+        if (!amount.isPositive()) throw new IllegalArgumentException("Amount must be positive.");
+        int velocity = VELOCITY == null ? VelocityLimiter.UNLIMITED : VELOCITY.acquire(accountNo, amount);
+        try {
+            if (LEDGER != null) {
+                LEDGER.withdraw(accountNo, amount);
+                return;
+            }
+            try {
+                inTransaction(con -> {
+                    debitOrFail(con, accountNo, amount);
+                    txnDAO.insertTxn(con, accountNo, "Withdraw", amount);
+                    outboxDAO.add(con, Outbox.posting(Outbox.WITHDRAW, accountNo, amount, 0));
+                });
+            } finally {
+                BALANCE_CACHE.invalidate(accountNo); // after commit
+            }
+        } catch (RuntimeException | SQLException e) {
+            if (VELOCITY != null) VELOCITY.release(accountNo, amount, velocity);
+            throw e;
+        }
+    }
+
+    // One posting: through the group committer when enabled, otherwise its own transaction
+    private void inTransaction(GroupCommit.Posting work) throws SQLException {
+        if (GROUP_COMMIT != null) {
+            GROUP_COMMIT.submit(work);
+            return;
+        }
         try (Connection con = DBConnection.getConnection()) {
             con.setAutoCommit(false);
             try {
-                if (!accountDAO.exists(con, accountNo)) throw new IllegalArgumentException("Account not found.");
-                BigDecimal bal = accountDAO.getBalance(con, accountNo);
-                if (bal.compareTo(amount) < 0) throw new IllegalArgumentException("Insufficient balance.");
-                BigDecimal newBal = bal.subtract(amount);
-                accountDAO.setBalance(con, accountNo, newBal);
-                txnDAO.insertTxn(con, accountNo, "Withdraw", amount);
+                work.apply(con);
                 con.commit();
             } catch (Exception e) {
                 con.rollback();
@@ -129,58 +374,219 @@ public class Services {
         }
     }
 
+    // Listeners see events once the in-JVM dispatcher delivers them (-Dbms.outbox.intervalMs)
+    public void subscribeEvents(Consumer<OutboxEvent> listener) {
+        EVENTS.subscribe(listener);
+    }
+
+    public VelocityLimiter.Stats velocityStats() {
+        return VELOCITY == null ? null : VELOCITY.stats();
+    }
+
+    public Outbox.Stats outboxStats() {
+        return OUTBOX == null ? null : OUTBOX.stats();
+    }
+
+    public GroupCommit.Stats groupCommitStats() {
+        return GROUP_COMMIT == null ? null : GROUP_COMMIT.stats();
+    }
+
+    // Guarded debit; the extra existence probe only runs on the failure path
+    private void debitOrFail(Connection con, long accountNo, Money amount) throws SQLException {
+        if (accountDAO.debit(con, accountNo, amount)) return;
+        if (!accountDAO.exists(con, accountNo)) throw new IllegalArgumentException("Account not found.");
+        throw new IllegalArgumentException("Insufficient balance.");
+    }
+
     public void transfer(long fromAccount, long toAccount, BigDecimal amount) throws SQLException {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) throw new IllegalArgumentException("Amount must be positive.");
+        transfer(fromAccount, toAccount, Money.of(amount));
+    }
+
+    public void transfer(long fromAccount, long toAccount, Money amount) throws SQLException {
+        if (!amount.isPositive()) throw new IllegalArgumentException("Amount must be positive.");
         if (fromAccount == toAccount) throw new IllegalArgumentException("Cannot transfer to same account.");
-        try (Connection con = DBConnection.getConnection()) {
-            con.setAutoCommit(false);
+        int velocity = VELOCITY == null ? VelocityLimiter.UNLIMITED : VELOCITY.acquire(fromAccount, amount);
+        try {
+            if (LEDGER != null) {
+                LEDGER.transfer(fromAccount, toAccount, amount);
+                return;
+            }
             try {
-                if (!accountDAO.exists(con, fromAccount) || !accountDAO.exists(con, toAccount))
-                    throw new IllegalArgumentException("One or both accounts do not exist.");
+                if (GROUP_COMMIT != null) {
+                    GROUP_COMMIT.submit(con -> transferEngine.post(con, fromAccount, toAccount, amount));
+                } else {
+                    transferEngine.transfer(fromAccount, toAccount, amount);
+                }
+            } finally {
+                BALANCE_CACHE.invalidate(fromAccount);
+                BALANCE_CACHE.invalidate(toAccount);
+            }
+        } catch (RuntimeException | SQLException e) {
+            if (VELOCITY != null) VELOCITY.release(fromAccount, amount, velocity);
+            throw e;
+        }
+    }
 
-                BigDecimal balFrom = accountDAO.getBalance(con, fromAccount);
-                if (balFrom.compareTo(amount) < 0) throw new IllegalArgumentException("Insufficient balance.");
+    // Bulk transfers (payroll runs); one result per instruction, in order
+    public List<TransferEngine.TransferResult> batchTransfer(List<TransferEngine.TransferInstruction> instructions) {
+        return batchTransfer(instructions, Integer.getInteger("bms.batch.chunkSize", 500));
+    }
 
-                BigDecimal balTo = accountDAO.getBalance(con, toAccount);
+    public List<TransferEngine.TransferResult> batchTransfer(List<TransferEngine.TransferInstruction> instructions, int chunkSize) {
+        if (LEDGER != null) return ledgerBatchTransfer(instructions);
+        try {
+            return transferEngine.batchTransfer(instructions, chunkSize);
+        } finally {
+            for (TransferEngine.TransferInstruction in : instructions) {
+                BALANCE_CACHE.invalidate(in.fromAccount);
+                BALANCE_CACHE.invalidate(in.toAccount);
+            }
+        }
+    }
 
-                accountDAO.setBalance(con, fromAccount, balFrom.subtract(amount));
-                accountDAO.setBalance(con, toAccount, balTo.add(amount));
+    // The ledger already amortizes the journal force across concurrent postings, so no chunking here
+    private List<TransferEngine.TransferResult> ledgerBatchTransfer(List<TransferEngine.TransferInstruction> instructions) {
+        List<TransferEngine.TransferResult> results = new ArrayList<>(instructions.size());
+        for (int i = 0; i < instructions.size(); i++) {
+            TransferEngine.TransferResult r = new TransferEngine.TransferResult();
+            r.index = i;
+            r.instruction = instructions.get(i);
+            r.status = TransferEngine.TransferStatus.OK;
+            try {
+                if (r.instruction.amount == null) throw new IllegalArgumentException("Amount must be positive.");
+                LEDGER.transfer(r.instruction.fromAccount, r.instruction.toAccount, Money.of(r.instruction.amount));
+            } catch (IllegalArgumentException e) {
+                r.message = e.getMessage();
+                if ("Account not found.".equals(r.message)) r.status = TransferEngine.TransferStatus.ACCOUNT_NOT_FOUND;
+                else if ("Insufficient balance.".equals(r.message)) r.status = TransferEngine.TransferStatus.INSUFFICIENT_BALANCE;
+                else r.status = TransferEngine.TransferStatus.INVALID;
+            } catch (SQLException e) {
+                r.status = TransferEngine.TransferStatus.FAILED;
+                r.message = e.getMessage();
+            }
+            results.add(r);
+        }
+        return results;
+    }
 
-                txnDAO.insertTxn(con, fromAccount, "Transfer", amount);
-                txnDAO.insertTxn(con, toAccount, "Deposit", amount); // receiver sees a deposit
+    public LedgerEngine.Stats ledgerStats() {
+        return LEDGER == null ? null : LEDGER.stats();
+    }
 
-                con.commit();
-            } catch (Exception e) {
-                con.rollback();
-                throw e;
-            } finally { con.setAutoCommit(true); }
-        }
+    public TransferEngine.Stats transferStats() {
+        return transferEngine.stats();
     }
 
+    // Hot rows from Txn, then whatever TxnArchive moved out below the lowest of them
     public List<Txn> transactionHistory(long accountNo) throws SQLException {
+        List<Txn> rows;
         try (Connection con = DBConnection.getConnection()) {
-            return txnDAO.findByAccount(con, accountNo);
+            rows = txnDAO.findByAccount(con, accountNo);
+        }
+        int below = Integer.MAX_VALUE;
+        for (Txn t : rows) below = Math.min(below, t.txnNo);
+        archived(accountNo, below, rows::add);
+        return rows;
+    }
+
+    public TxnPage transactionHistoryPage(long accountNo, TxnCursor after, int pageSize) throws SQLException {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be positive.");
+        TxnPage page;
+        int below;
+        try (Connection con = DBConnection.getConnection()) {
+            page = txnDAO.findPage(con, accountNo, after, pageSize);
+            if (page.next != null) return page;
+            below = txnDAO.lowestTxnNo(con, accountNo);
+        }
+        // Txn ran out: fill the page from the archive, which only holds older rows, with the same cursor rules
+        TxnCursor from = after;
+        if (!page.rows.isEmpty()) {
+            Txn last = page.rows.get(page.rows.size() - 1);
+            from = new TxnCursor();
+            from.tnxDate = last.tnxDate;
+            from.txnNo = last.txnNo;
+        }
+        TxnCursor seek = from;
+        List<Txn> rows = page.rows;
+        archived(accountNo, below, t -> {
+            if (rows.size() > pageSize) return;
+            if (seek == null || t.tnxDate.isBefore(seek.tnxDate) || (t.tnxDate.equals(seek.tnxDate) && t.txnNo < seek.txnNo)) rows.add(t);
+        });
+        if (rows.size() > pageSize) {
+            rows.remove(pageSize);
+            Txn last = rows.get(pageSize - 1);
+            page.next = new TxnCursor();
+            page.next.tnxDate = last.tnxDate;
+            page.next.txnNo = last.txnNo;
+        }
+        return page;
+    }
+
+    // Full history without materializing it; the connection is held until sink has seen every hot row
+    public void streamTransactionHistory(long accountNo, Consumer<Txn> sink) throws SQLException {
+        int[] below = {Integer.MAX_VALUE};
+        try (Connection con = DBConnection.getConnection()) {
+            txnDAO.streamByAccount(con, accountNo, Integer.getInteger("bms.history.fetchSize", 500), t -> {
+                below[0] = Math.min(below[0], t.txnNo);
+                sink.accept(t);
+            });
+        }
+        archived(accountNo, below[0], sink);
+    }
+
+    private static void archived(long accountNo, int below, Consumer<Txn> sink) throws SQLException {
+        try {
+            ARCHIVE.forEach(accountNo, below, sink);
+        } catch (IOException e) {
+            throw new SQLException("Transaction archive unreadable: " + e.getMessage(), e);
         }
     }
 
     public boolean deleteAccountByCustomer(int customerId) throws SQLException {
         try (Connection con = DBConnection.getConnection()) {
+            List<Long> accounts = accountDAO.listByCustomer(con, customerId);
+            if (LEDGER != null) LEDGER.awaitWriteBehind();   // acknowledged postings reach the rows first
             con.setAutoCommit(false);
             try {
                 boolean ok = accountDAO.deleteByCustomer(con, customerId);
+                // After the delete has locked the rows, so no posting's event can commit after these
+                List<OutboxEvent> events = new ArrayList<>(accounts.size());
+                for (long accNo : accounts) events.add(Outbox.customer(Outbox.ACCOUNT_CLOSED, customerId, accNo));
+                outboxDAO.addBatch(con, events);
                 con.commit();
+                // Only once the delete is durable; a rolled-back delete leaves the ledger untouched
+                if (LEDGER != null) {
+                    for (long accNo : accounts) LEDGER.closeAccount(accNo);
+                }
+                SESSIONS.closeCustomer(customerId);
                 return ok;
             } catch (Exception e) {
                 con.rollback();
                 throw e;
             } finally { con.setAutoCommit(true); }
+        } finally {
+            BALANCE_CACHE.invalidateAll(); // deletes are rare; not worth looking up the customer's accounts
         }
     }
 
     // Loan
     public int applyLoan(int customerId, String loanType, BigDecimal amount) throws SQLException {
+        Money cents = Money.of(amount);
+        int loanId = Ids.nextLoanId();     // before the connection, see createCustomerAccount
         try (Connection con = DBConnection.getConnection()) {
-            return loanDAO.apply(con, customerId, loanType, amount);
+            con.setAutoCommit(false);
+            try {
+                loanDAO.apply(con, loanId, customerId, loanType, amount);
+                OutboxEvent e = Outbox.customer(Outbox.LOAN_APPLIED, customerId, 0);
+                e.amountCents = cents.cents();
+                e.refId = loanId;
+                outboxDAO.add(con, e);
+                con.commit();
+                return loanId;
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            } finally { con.setAutoCommit(true); }
         }
     }
 
@@ -190,10 +596,42 @@ public class Services {
         }
     }
 
-    // Employees
-    public List<Employee> employeeDetails() throws SQLException {
+    public LoanSchedules.Schedule loanSchedule(int customerId, int loanId) throws SQLException {
+        return LOAN_SCHEDULES.schedule(ownLoan(customerId, loanId));
+    }
+
+    // Row by row; long tenures are never materialized
+    public void streamLoanSchedule(int customerId, int loanId, Consumer<LoanSchedules.Installment> sink) throws SQLException {
+        LOAN_SCHEDULES.stream(ownLoan(customerId, loanId), sink);
+    }
+
+    private LoanTerms ownLoan(int customerId, int loanId) throws SQLException {
+        LoanTerms t;
         try (Connection con = DBConnection.getConnection()) {
-            return employeeDAO.listAll(con);
+            t = loanDAO.terms(con, loanId);
         }
+        if (t == null || t.customerId != customerId) throw new IllegalArgumentException("Loan not found.");
+        return t;
+    }
+
+    // Employees
+    public List<Employee> employeeDetails() throws SQLException {
+        return EMPLOYEES.get();
+    }
+
+    public List<Branch> branches() throws SQLException {
+        List<Branch> list = new ArrayList<>(BRANCHES.get().values());
+        list.sort(Comparator.comparingInt(b -> b.branchId));
+        return list;
+    }
+
+    // For callers that change Branch/Employee rows outside this app's cache
+    public void invalidateReferenceData() {
+        EMPLOYEES.invalidate();
+        BRANCHES.invalidate();
+    }
+
+    public ReferenceCache.Stats employeeCacheStats() {
+        return EMPLOYEES.stats();
     }
 }
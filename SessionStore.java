@@ -0,0 +1,172 @@
+package db;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Logged-in sessions, keyed by an opaque random token. A session remembers the customer and the
+// account numbers they own, so follow-up requests are authorized with one map lookup instead of a
+// Login query. Sessions expire after an idle timeout or an absolute lifetime, whichever comes first.
+// When full, the oldest session is evicted to make room.
+public class SessionStore {
+
+    public static class Session {
+        public final String token;
+        public final int customerId;
+        final long createdAt;
+        volatile long lastSeenAt;
+        final Set<Long> accounts;
+
+        Session(String token, int customerId, Set<Long> accounts, long now) {
+            this.token = token;
+            this.customerId = customerId;
+            this.accounts = accounts;
+            this.createdAt = now;
+            this.lastSeenAt = now;
+        }
+
+        public boolean owns(long accountNo) {
+            return accounts.contains(accountNo);
+        }
+
+        public Set<Long> accounts() {
+            return accounts;
+        }
+    }
+
+    public static class Stats {
+        public int active;
+        public long created;
+        public long expired;
+        public long evicted;
+        public long lookups;
+        public long misses;
+
+        @Override
+        public String toString() {
+            return String.format("active=%d created=%d expired=%d evicted=%d lookups=%d misses=%d",
+                    active, created, expired, evicted, lookups, misses);
+        }
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int maxSessions;
+    private final long idleMs;
+    private final long maxAgeMs;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Session> byAge = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SessionStore(int maxSessions, long idleMs, long maxAgeMs) {
+        if (maxSessions <= 0) throw new IllegalArgumentException("maxSessions must be positive.");
+        this.maxSessions = maxSessions;
+        this.idleMs = idleMs;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public Session open(int customerId, Set<Long> accounts) {
+        long now = System.currentTimeMillis();
+        byte[] raw = new byte[32];
+        RANDOM.nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        Session s = new Session(token, customerId, Collections.unmodifiableSet(new HashSet<>(accounts)), now);
+        purgeHead(now);
+        while (size.incrementAndGet() > maxSessions) {
+            size.decrementAndGet();
+            if (!evictOldest(now)) break;
+        }
+        sessions.put(token, s);
+        byAge.add(s);
+        created.increment();
+        return s;
+    }
+
+    // null when the token is unknown or the session has expired
+    public Session get(String token) {
+        lookups.increment();
+        Session s = token == null ? null : sessions.get(token);
+        if (s == null) {
+            misses.increment();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (isExpired(s, now)) {
+            if (remove(s)) expired.increment();
+            misses.increment();
+            return null;
+        }
+        s.lastSeenAt = now;
+        return s;
+    }
+
+    public void close(String token) {
+        Session s = token == null ? null : sessions.get(token);
+        if (s != null) remove(s);
+    }
+
+    // After the customer is deleted
+    public void closeCustomer(int customerId) {
+        for (Session s : sessions.values()) {
+            if (s.customerId == customerId) remove(s);
+        }
+    }
+
+    private boolean isExpired(Session s, long now) {
+        return now - s.lastSeenAt > idleMs || now - s.createdAt > maxAgeMs;
+    }
+
+    // The age queue is in creation order, so sessions past their absolute lifetime and closed ones
+    // collect at its head; trimming them here keeps both the queue and the map from growing
+    private void purgeHead(long now) {
+        Session s;
+        while ((s = byAge.peek()) != null) {
+            boolean live = sessions.get(s.token) == s;
+            if (live && now - s.createdAt <= maxAgeMs) return;
+            if (byAge.remove(s) && live && remove(s)) expired.increment();
+        }
+    }
+
+    // Drops closed sessions from the age queue on the way to the oldest live one
+    private boolean evictOldest(long now) {
+        Session s;
+        while ((s = byAge.poll()) != null) {
+            if (sessions.get(s.token) != s) continue;
+            if (remove(s)) {
+                if (isExpired(s, now)) expired.increment();
+                else evicted.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean remove(Session s) {
+        if (!sessions.remove(s.token, s)) return false;
+        size.decrementAndGet();
+        return true;
+    }
+
+    public Stats stats() {
+        Stats st = new Stats();
+        st.active = sessions.size();
+        st.created = created.sum();
+        st.expired = expired.sum();
+        st.evicted = evicted.sum();
+        st.lookups = lookups.sum();
+        st.misses = misses.sum();
+        return st;
+    }
+}
@@ -0,0 +1,263 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-statement latency for everything that goes through the pool. Each SQL string is named after
+// the first caller outside the JDBC plumbing that prepared it (AccountDAO.getBalance, ...), so one
+// name covers every variant of a dynamic statement. Timings cover execution only, not row fetching.
+// Statements slower than the threshold are logged with their parameter types, never their values.
+// Off by default (-Dbms.sql.metrics=true). The wrapper is a Proxy like the pool's and the statement
+// cache's handles it sits on, so it adds one more reflective hop per call while metrics are on.
+// These numbers are reported on the console only; the backend's are in Micrometer.
+public class SqlMetrics {
+
+    public static class StatementStats {
+        public String name;
+        public long count;
+        public long errors;
+        public long rows;
+        public long totalNanos;
+        public long maxNanos;
+        public long p50Micros;      // upper bound of the power-of-two bucket
+        public long p99Micros;
+
+        public double avgMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s count=%d avg=%.3fms p50<=%.3fms p99<=%.3fms max=%.3fms rows=%d errors=%d",
+                    name, count, avgMillis(), p50Micros / 1e3, p99Micros / 1e3, maxNanos / 1e6, rows, errors);
+        }
+    }
+
+    private static final int BUCKETS = 40;  // 1us .. ~6 days
+    private static final int MAX_NAMES = 10_000;
+
+    private static final class Timer {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos, boolean failed) {
+            count.increment();
+            if (failed) errors.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            long micros = nanos / 1_000;
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        }
+
+        long percentileMicros(double q) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += buckets.get(i);
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) return i == 0 ? 0 : 1L << i;
+            }
+            return 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+    private final long slowNanos;
+
+    public SqlMetrics(long slowMs) {
+        this.slowNanos = slowMs > 0 ? slowMs * 1_000_000L : Long.MAX_VALUE;
+    }
+
+    // For timings taken outside a statement, e.g. waiting for a pooled connection
+    public void record(String name, long nanos) {
+        timers.computeIfAbsent(name, k -> new Timer()).record(nanos, false);
+    }
+
+    PreparedStatement wrap(PreparedStatement ps, String sql) {
+        String name = names.get(sql);
+        if (name == null) {
+            // Past the cap, new SQL strings share one name instead of walking the stack on every prepare
+            name = names.size() < MAX_NAMES ? names.computeIfAbsent(sql, k -> callerName()) : "other";
+        }
+        Timer t = timers.computeIfAbsent(name, k -> new Timer());
+        return (PreparedStatement) Proxy.newProxyInstance(SqlMetrics.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new Timed(ps, sql, name, t));
+    }
+
+    // Sorted by total time, the statements worth looking at first
+    public List<StatementStats> snapshot() {
+        List<StatementStats> out = new ArrayList<>();
+        timers.forEach((name, t) -> {
+            StatementStats s = new StatementStats();
+            s.name = name;
+            s.count = t.count.sum();
+            s.errors = t.errors.sum();
+            s.rows = t.rows.sum();
+            s.totalNanos = t.totalNanos.sum();
+            s.maxNanos = t.maxNanos.get();
+            s.p50Micros = t.percentileMicros(0.50);
+            s.p99Micros = t.percentileMicros(0.99);
+            out.add(s);
+        });
+        out.sort(Comparator.comparingLong((StatementStats s) -> s.totalNanos).reversed());
+        return out;
+    }
+
+    public void reset() {
+        timers.clear();
+    }
+
+    // Only runs the first time a SQL string is seen
+    private static String callerName() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(f -> !isPlumbing(f.getClassName()))
+                .findFirst()
+                .map(f -> {
+                    String cls = f.getClassName();
+                    cls = cls.substring(Math.max(cls.lastIndexOf('.'), cls.lastIndexOf('$')) + 1);
+                    String method = f.getMethodName();
+                    if (method.startsWith("lambda$")) method = method.split("\\$")[1];
+                    return cls + "." + method;
+                })
+                .orElse("unknown"));
+    }
+
+    private static boolean isPlumbing(String cls) {
+        if (cls.startsWith("java.") || cls.startsWith("jdk.") || cls.startsWith("com.sun.proxy")) return true;
+        int nested = cls.indexOf('$');
+        String outer = nested < 0 ? cls : cls.substring(0, nested);
+        return outer.equals("db.SqlMetrics") || outer.equals("db.ConnectionPool") || outer.equals("db.StatementCache");
+    }
+
+    // Times the execute calls and remembers parameter types for the slow log; the rest pass through
+    private class Timed implements InvocationHandler {
+        private final PreparedStatement ps;
+        private final String sql;
+        private final String name;
+        private final Timer timer;
+        private String[] shapes = new String[8];
+        private int batched;
+
+        Timed(PreparedStatement ps, String sql, String name, Timer timer) {
+            this.ps = ps;
+            this.sql = sql;
+            this.name = name;
+            this.timer = timer;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            String method = m.getName();
+            switch (method) {
+                case "executeQuery":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "execute":
+                case "executeBatch":
+                case "executeLargeBatch":
+                    return timed(method, m, args);
+                case "addBatch":
+                    batched++;
+                    break;
+                case "clearParameters":
+                    Arrays.fill(shapes, null);
+                    break;
+                case "clearBatch":
+                    batched = 0;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "TimedStatement[" + name + "]";
+                default:
+                    if (method.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                        shape((Integer) args[0], method.substring(3));
+                    }
+            }
+            return invokeOn(ps, m, args);
+        }
+
+        private Object timed(String method, Method m, Object[] args) throws Throwable {
+            long start = System.nanoTime();
+            boolean failed = true;
+            long rows = 0;
+            Object result;
+            try {
+                result = invokeOn(ps, m, args);
+                failed = false;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                timer.record(nanos, failed);
+                if (nanos >= slowNanos) logSlow(nanos, failed);
+                if (method.equals("executeBatch") || method.equals("executeLargeBatch")) batched = 0;
+            }
+            if (result instanceof Integer) {
+                rows = Math.max(0, (Integer) result);
+            } else if (result instanceof Long) {
+                rows = Math.max(0, (Long) result);
+            } else if (result instanceof int[]) {
+                for (int n : (int[]) result) rows += Math.max(0, n);
+            } else if (result instanceof long[]) {
+                for (long n : (long[]) result) rows += Math.max(0, n);
+            } else if (result instanceof ResultSet) {
+                return countRows((ResultSet) result);
+            }
+            timer.rows.add(rows);
+            return result;
+        }
+
+        private ResultSet countRows(ResultSet rs) {
+            return (ResultSet) Proxy.newProxyInstance(SqlMetrics.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (p, m, a) -> {
+                        Object r = invokeOn(rs, m, a);
+                        if (m.getName().equals("next") && Boolean.TRUE.equals(r)) timer.rows.increment();
+                        return r;
+                    });
+        }
+
+        private void shape(int index, String type) {
+            if (index <= 0 || index > 256) return;
+            if (index > shapes.length) shapes = Arrays.copyOf(shapes, Math.max(index, shapes.length * 2));
+            shapes[index - 1] = type;
+        }
+
+        private void logSlow(long nanos, boolean failed) {
+            StringBuilder params = new StringBuilder();
+            for (int i = 0; i < shapes.length; i++) {
+                if (shapes[i] == null) continue;
+                if (params.length() > 0) params.append(", ");
+                params.append(i + 1).append(':').append(shapes[i]);
+            }
+            System.out.printf("[slow-sql] %s took %.1fms%s%s params=(%s) sql=%s%n", name, nanos / 1e6,
+                    failed ? " (failed)" : "", batched > 0 ? " batch=" + batched : "", params, sql);
+        }
+    }
+
+    private static Object invokeOn(Object target, Method m, Object[] args) throws Throwable {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
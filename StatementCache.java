@@ -0,0 +1,135 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// LRU of prepared statements for one physical connection. Callers get a handle whose close()
+// parks the statement for the next prepareStatement(sql) on the same connection, so neither the
+// driver (client-side) nor the server (useServerPrepStmts=true) re-parses hot SQL.
+// Not thread-safe: a pooled connection is used by one borrower at a time.
+class StatementCache {
+
+    // Pool-wide counters shared by every connection's cache
+    static class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+    }
+
+    private final Connection raw;
+    private final Counters counters;
+    private final LinkedHashMap<String, PreparedStatement> parked;
+
+    StatementCache(Connection raw, int capacity, Counters counters) {
+        this.raw = raw;
+        this.counters = counters;
+        this.parked = new LinkedHashMap<String, PreparedStatement>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= capacity) return false;
+                counters.evictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    // Checked-out statements are removed from the map, so a nested prepare of the same SQL gets its own
+    PreparedStatement prepare(String sql, Connection owner) throws SQLException {
+        PreparedStatement ps = parked.remove(sql);
+        if (ps != null) {
+            counters.hits.increment();
+        } else {
+            counters.misses.increment();
+            ps = raw.prepareStatement(sql);
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(
+                StatementCache.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                new Handle(sql, ps, owner));
+    }
+
+    // Back to the state of a fresh prepareStatement(sql), so the next borrower inherits nothing
+    private void park(String sql, PreparedStatement ps) {
+        try {
+            ResultSet rs = ps.getResultSet();
+            if (rs != null) rs.close();     // left open by a caller that only closed the statement
+            ps.clearParameters();
+            ps.clearBatch();
+            ps.setFetchSize(0);
+            ps.setMaxRows(0);
+            ps.setQueryTimeout(0);
+        } catch (SQLException e) {
+            closeQuietly(ps);
+            return;
+        }
+        if (parked.containsKey(sql)) {
+            closeQuietly(ps);       // a twin is already parked
+        } else {
+            parked.put(sql, ps);
+        }
+    }
+
+    void closeAll() {
+        for (PreparedStatement ps : parked.values()) closeQuietly(ps);
+        parked.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignored) {
+            // connection may already be gone
+        }
+    }
+
+    private class Handle implements InvocationHandler {
+        private final String sql;
+        private final PreparedStatement ps;
+        private final Connection owner;
+        private boolean closedHandle;
+
+        Handle(String sql, PreparedStatement ps, Connection owner) {
+            this.sql = sql;
+            this.ps = ps;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "close":
+                    if (!closedHandle) {
+                        closedHandle = true;
+                        park(sql, ps);
+                    }
+                    return null;
+                case "isClosed":
+                    return closedHandle || ps.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + sql + "]";
+                default:
+                    if (closedHandle) throw new SQLException("Statement handle already closed.");
+                    try {
+                        return m.invoke(ps, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
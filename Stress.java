@@ -0,0 +1,225 @@
+package db;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Concurrency checks: java db.Stress <name> [threads] [opsPerThread]
+// Each check prints PASS/FAIL and exits non-zero on failure.
+public class Stress {
+
+    interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    static void hammer(int threads, Worker w) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong errors = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    w.run(id);
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        if (errors.get() > 0) throw new IllegalStateException(errors.get() + " worker(s) failed");
+    }
+
+    static boolean report(String name, boolean ok, String detail) {
+        System.out.println((ok ? "PASS " : "FAIL ") + name + ": " + detail);
+        return ok;
+    }
+
+    // Several allocators (one per simulated JVM) drawing from one sequence must never collide
+    static class IdAllocatorCheck {
+        static boolean run(String name, int threads, int ops, boolean useDb) throws Exception {
+            int jvms = 4;
+            IdAllocator.BlockSource source;
+            if (useDb) {
+                source = IdAllocator.jdbc(DBConnection.dataSource());
+            } else {
+                AtomicLong table = new AtomicLong(1);
+                source = (seq, size) -> table.getAndAdd(size);
+            }
+            IdAllocator[] allocators = new IdAllocator[jvms];
+            for (int i = 0; i < jvms; i++) allocators[i] = new IdAllocator("Customer", 1000, source);
+
+            Set<Long> seen = ConcurrentHashMap.newKeySet();
+            AtomicLong dups = new AtomicLong();
+            long t0 = System.nanoTime();
+            hammer(threads, t -> {
+                IdAllocator a = allocators[t % jvms];
+                for (int i = 0; i < ops; i++) {
+                    if (!seen.add(a.next())) dups.incrementAndGet();
+                }
+            });
+            double secs = (System.nanoTime() - t0) / 1e9;
+            long total = (long) threads * ops;
+            return report(name, dups.get() == 0 && seen.size() == total,
+                    String.format("%d ids, %d duplicates, %.0f ids/s", seen.size(), dups.get(), total / secs));
+        }
+    }
+
+    static long firstAccount() throws SQLException {
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement("SELECT MIN(account_no) FROM Account");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // Concurrent postings to one account must produce unique, gap-free txn_no values
+    static class TxnSeqCheck {
+        static boolean run(int threads, int ops) throws Exception {
+            Services svc = new Services();
+            long acc = firstAccount();
+            int start;
+            try (Connection con = DBConnection.getConnection();
+                 PreparedStatement ps = con.prepareStatement("SELECT next_txn_no FROM Account WHERE account_no=?")) {
+                ps.setLong(1, acc);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    start = rs.getInt(1);
+                }
+            }
+            hammer(threads, t -> {
+                for (int i = 0; i < ops; i++) svc.deposit(acc, new BigDecimal("1.00"));
+            });
+            long expected = (long) threads * ops;
+            try (Connection con = DBConnection.getConnection();
+                 PreparedStatement ps = con.prepareStatement(
+                         "SELECT COUNT(*), COUNT(DISTINCT txn_no), MIN(txn_no), MAX(txn_no) FROM Txn WHERE account_no=? AND txn_no>=?")) {
+                ps.setLong(1, acc);
+                ps.setInt(2, start);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    long rows = rs.getLong(1), distinct = rs.getLong(2), min = rs.getLong(3), max = rs.getLong(4);
+                    boolean ok = rows == expected && distinct == rows && min == start && max == start + expected - 1;
+                    return report("txn-seq", ok, String.format("account %d: %d rows, %d distinct, txn_no %d..%d",
+                            acc, rows, distinct, min, max));
+                }
+            }
+        }
+    }
+
+    static BigDecimal totalBalance(long[] accounts) throws SQLException {
+        BigDecimal sum = BigDecimal.ZERO;
+        try (Connection con = DBConnection.getConnection()) {
+            DAOs.AccountDAO dao = new DAOs.AccountDAO();
+            for (long acc : accounts) sum = sum.add(dao.getBalance(con, acc));
+        }
+        return sum;
+    }
+
+    static long[] someAccounts(int limit) throws SQLException {
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement("SELECT account_no FROM Account ORDER BY account_no LIMIT ?")) {
+            ps.setInt(1, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Long> list = new ArrayList<>();
+                while (rs.next()) list.add(rs.getLong(1));
+                return list.stream().mapToLong(Long::longValue).toArray();
+            }
+        }
+    }
+
+    // Random transfers in both directions between a few hot accounts must conserve the total
+    static class TransferConservationCheck {
+        static boolean run(int threads, int ops) throws Exception {
+            Services svc = new Services();
+            long[] accounts = someAccounts(5);
+            BigDecimal before = totalBalance(accounts);
+            AtomicLong done = new AtomicLong(), rejected = new AtomicLong();
+            hammer(threads, t -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < ops; i++) {
+                    long from = accounts[rnd.nextInt(accounts.length)];
+                    long to = accounts[rnd.nextInt(accounts.length)];
+                    if (from == to) continue;
+                    try {
+                        svc.transfer(from, to, BigDecimal.valueOf(rnd.nextInt(1, 5000), 2));
+                        done.incrementAndGet();
+                    } catch (IllegalArgumentException e) {
+                        rejected.incrementAndGet(); // insufficient balance
+                    }
+                }
+            });
+            BigDecimal after = totalBalance(accounts);
+            return report("transfer", before.compareTo(after) == 0,
+                    String.format("total %s -> %s, %d transfers, %d rejected, %s",
+                            before, after, done.get(), rejected.get(), svc.transferStats()));
+        }
+    }
+
+    // Deposits mixed with over-limit withdrawals sharing groups: rejections must not drop their neighbours
+    static class GroupCommitIsolationCheck {
+        static boolean run(int threads, int ops) throws Exception {
+            long acc = firstAccount();
+            DAOs.AccountDAO accounts = new DAOs.AccountDAO();
+            DAOs.TxnDAO txns = new DAOs.TxnDAO();
+            Money one = Money.parse("1.00");
+            Money huge = Money.parse("999999999.00");
+            BigDecimal before = totalBalance(new long[]{acc});
+            AtomicLong accepted = new AtomicLong(), rejected = new AtomicLong();
+            try (GroupCommit group = new GroupCommit(new GroupCommit.Config())) {
+                hammer(threads, t -> {
+                    for (int i = 0; i < ops; i++) {
+                        boolean bad = (i % 3) == 0;
+                        try {
+                            group.submit(con -> {
+                                accounts.credit(con, acc, one);
+                                txns.insertTxn(con, acc, "Deposit", one);
+                                // fails after writing, so only the savepoint rollback can undo the credit
+                                if (bad && !accounts.debit(con, acc, huge)) throw new IllegalArgumentException("Insufficient balance.");
+                            });
+                            accepted.incrementAndGet();
+                        } catch (IllegalArgumentException e) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                });
+                BigDecimal after = totalBalance(new long[]{acc});
+                BigDecimal expected = before.add(BigDecimal.valueOf(accepted.get()));
+                return report("group-commit", after.compareTo(expected) == 0,
+                        String.format("balance %s -> %s (expected %s), %d accepted, %d rejected, %s",
+                                before, after, expected, accepted.get(), rejected.get(), group.stats()));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "ids";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int ops = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+        boolean ok;
+        switch (name) {
+            case "ids": ok = IdAllocatorCheck.run(name, threads, ops, false); break;
+            case "ids-db": ok = IdAllocatorCheck.run(name, threads, ops, true); break;
+            case "txn-seq": ok = TxnSeqCheck.run(threads, Math.min(ops, 200)); break;
+            case "transfer": ok = TransferConservationCheck.run(threads, Math.min(ops, 500)); break;
+            case "group-commit": ok = GroupCommitIsolationCheck.run(threads, Math.min(ops, 300)); break;
+            default: System.out.println("Unknown check: " + name); ok = false;
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,285 @@
+package db;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import db.DAOs.*;
+import db.Models.*;
+
+// Transfers that lock both Account rows in account_no order and retry lock conflicts
+public class TransferEngine {
+
+    public static class Stats {
+        public long attempts;
+        public long commits;
+        public long retries;
+        public long deadlocks;
+        public long lockTimeouts;
+        public long exhausted;
+
+        @Override
+        public String toString() {
+            return String.format("attempts=%d commits=%d retries=%d deadlocks=%d lockTimeouts=%d exhausted=%d",
+                    attempts, commits, retries, deadlocks, lockTimeouts, exhausted);
+        }
+    }
+
+    // One leg of a bulk run (e.g. a payroll line)
+    public static class TransferInstruction {
+        public long fromAccount;
+        public long toAccount;
+        public BigDecimal amount;
+
+        public TransferInstruction() { }
+
+        public TransferInstruction(long fromAccount, long toAccount, BigDecimal amount) {
+            this.fromAccount = fromAccount;
+            this.toAccount = toAccount;
+            this.amount = amount;
+        }
+    }
+
+    public enum TransferStatus { OK, INVALID, ACCOUNT_NOT_FOUND, INSUFFICIENT_BALANCE, FAILED }
+
+    public static class TransferResult {
+        public int index;                // position in the submitted list
+        public TransferInstruction instruction;
+        public TransferStatus status;
+        public String message;
+    }
+
+    enum Conflict { NONE, DEADLOCK, LOCK_TIMEOUT }
+
+    interface Work {
+        void run(Connection con) throws SQLException;
+    }
+
+    private final AccountDAO accountDAO = new AccountDAO();
+    private final TxnDAO txnDAO = new TxnDAO();
+    private final OutboxDAO outboxDAO = new OutboxDAO();
+
+    private final int maxAttempts = Integer.getInteger("bms.transfer.maxAttempts", 5);
+    private final long backoffMs = Long.getLong("bms.transfer.backoffMs", 5);
+    private final long maxBackoffMs = Long.getLong("bms.transfer.maxBackoffMs", 200);
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong lockTimeouts = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public void transfer(long fromAccount, long toAccount, BigDecimal amount) throws SQLException {
+        transfer(fromAccount, toAccount, Money.of(amount));
+    }
+
+    public void transfer(long fromAccount, long toAccount, Money amount) throws SQLException {
+        if (!amount.isPositive()) throw new IllegalArgumentException("Amount must be positive.");
+        if (fromAccount == toAccount) throw new IllegalArgumentException("Cannot transfer to same account.");
+        inTransaction(con -> post(con, fromAccount, toAccount, amount));
+    }
+
+    // The transfer itself, inside the caller's transaction; also used by GroupCommit. Both rows are
+    // locked in account_no order first; the balance check is the guarded debit itself.
+    void post(Connection con, long fromAccount, long toAccount, Money amount) throws SQLException {
+        Map<Long, Account> locked = accountDAO.lockForUpdate(con, fromAccount, toAccount);
+        if (locked.size() < 2) throw new IllegalArgumentException("One or both accounts do not exist.");
+        if (!accountDAO.debit(con, fromAccount, amount)) throw new IllegalArgumentException("Insufficient balance.");
+        accountDAO.credit(con, toAccount, amount);
+
+        txnDAO.insertTxn(con, fromAccount, "Transfer", amount);
+        txnDAO.insertTxn(con, toAccount, "Deposit", amount); // receiver sees a deposit
+        outboxDAO.addBatch(con, List.of(
+                Outbox.posting(Outbox.TRANSFER_OUT, fromAccount, amount, toAccount),
+                Outbox.posting(Outbox.TRANSFER_IN, toAccount, amount, fromAccount)));
+    }
+
+    // Applies instructions in chunks of chunkSize, one transaction per chunk. Within a chunk every
+    // touched account is locked once, each account's balance is updated once for its net amount,
+    // and Txn rows go out as one JDBC batch. Bad lines are rejected individually.
+    public List<TransferResult> batchTransfer(List<TransferInstruction> instructions, int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive.");
+        List<TransferResult> results = new ArrayList<>(instructions.size());
+        for (int i = 0; i < instructions.size(); i++) {
+            TransferResult r = new TransferResult();
+            r.index = i;
+            r.instruction = instructions.get(i);
+            results.add(r);
+        }
+        for (int from = 0; from < results.size(); from += chunkSize) {
+            List<TransferResult> chunk = results.subList(from, Math.min(results.size(), from + chunkSize));
+            try {
+                inTransaction(con -> postChunk(con, chunk));
+            } catch (SQLException | RuntimeException e) {
+                for (TransferResult r : chunk) {
+                    // lines rejected on their own keep their reason; only the ones that would have posted failed
+                    if (r.status != null && r.status != TransferStatus.OK) continue;
+                    r.status = TransferStatus.FAILED;
+                    r.message = e.getMessage();
+                }
+            }
+        }
+        return results;
+    }
+
+    // Amounts are rounded to cents on entry, so the balance deltas, the Txn rows and the events
+    // all carry the same cents.
+    private void postChunk(Connection con, List<TransferResult> chunk) throws SQLException {
+        Set<Long> touched = new HashSet<>();
+        Money[] amounts = new Money[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            TransferResult r = chunk.get(i);
+            TransferInstruction in = r.instruction;
+            r.status = null;
+            r.message = null;
+            try {
+                amounts[i] = in.amount == null ? Money.ZERO : Money.of(in.amount);
+            } catch (IllegalArgumentException e) {
+                reject(r, TransferStatus.INVALID, e.getMessage());
+                continue;
+            }
+            if (!amounts[i].isPositive()) {
+                reject(r, TransferStatus.INVALID, "Amount must be positive.");
+            } else if (in.fromAccount == in.toAccount) {
+                reject(r, TransferStatus.INVALID, "Cannot transfer to same account.");
+            } else {
+                touched.add(in.fromAccount);
+                touched.add(in.toAccount);
+            }
+        }
+        if (touched.isEmpty()) return;
+
+        Map<Long, Account> locked = accountDAO.lockForUpdate(con, touched.stream().mapToLong(Long::longValue).toArray());
+        Map<Long, Money> available = new HashMap<>();
+        Map<Long, Money> deltas = new LinkedHashMap<>();
+        Map<Long, Integer> counts = new HashMap<>();
+        Map<Long, Integer> nextTxn = new HashMap<>();
+        for (Account a : locked.values()) {
+            available.put(a.accountNo, Money.of(a.balance));
+            nextTxn.put(a.accountNo, a.nextTxnNo);
+        }
+        List<Txn> rows = new ArrayList<>();
+        List<OutboxEvent> events = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            TransferResult r = chunk.get(i);
+            if (r.status != null) continue;
+            TransferInstruction in = r.instruction;
+            Money amount = amounts[i];
+            if (!locked.containsKey(in.fromAccount) || !locked.containsKey(in.toAccount)) {
+                reject(r, TransferStatus.ACCOUNT_NOT_FOUND, "One or both accounts do not exist.");
+                continue;
+            }
+            if (available.get(in.fromAccount).compareTo(amount) < 0) {
+                reject(r, TransferStatus.INSUFFICIENT_BALANCE, "Insufficient balance.");
+                continue;
+            }
+            available.merge(in.fromAccount, amount.negate(), Money::plus);
+            available.merge(in.toAccount, amount, Money::plus);
+            deltas.merge(in.fromAccount, amount.negate(), Money::plus);
+            deltas.merge(in.toAccount, amount, Money::plus);
+            counts.merge(in.fromAccount, 1, Integer::sum);
+            counts.merge(in.toAccount, 1, Integer::sum);
+            rows.add(txnRow(in.fromAccount, nextTxn.merge(in.fromAccount, 1, Integer::sum) - 1, "Transfer", amount));
+            rows.add(txnRow(in.toAccount, nextTxn.merge(in.toAccount, 1, Integer::sum) - 1, "Deposit", amount));
+            events.add(Outbox.posting(Outbox.TRANSFER_OUT, in.fromAccount, amount, in.toAccount));
+            events.add(Outbox.posting(Outbox.TRANSFER_IN, in.toAccount, amount, in.fromAccount));
+            r.status = TransferStatus.OK;
+        }
+        if (rows.isEmpty()) return;
+        accountDAO.applyDeltas(con, deltas, counts);
+        txnDAO.insertTxnBatch(con, rows);
+        outboxDAO.addBatch(con, events);
+    }
+
+    private static void reject(TransferResult r, TransferStatus status, String message) {
+        r.status = status;
+        r.message = message;
+    }
+
+    private static Txn txnRow(long accountNo, int txnNo, String type, Money amount) {
+        Txn t = new Txn();
+        t.accountNo = accountNo;
+        t.txnNo = txnNo;
+        t.txnType = type;
+        t.amount = amount.toBigDecimal();
+        return t;
+    }
+
+    // Runs work in its own transaction, retrying deadlocks and lock timeouts with jittered backoff
+    void inTransaction(Work work) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            attempts.incrementAndGet();
+            try (Connection con = DBConnection.getConnection()) {
+                con.setAutoCommit(false);
+                try {
+                    work.run(con);
+                    con.commit();
+                    commits.incrementAndGet();
+                    return;
+                } catch (Exception e) {
+                    con.rollback();
+                    throw e;
+                } finally { con.setAutoCommit(true); }
+            } catch (SQLException e) {
+                Conflict c = classify(e);
+                if (c == Conflict.NONE) throw e;
+                (c == Conflict.DEADLOCK ? deadlocks : lockTimeouts).incrementAndGet();
+                if (attempt >= maxAttempts) {
+                    exhausted.incrementAndGet();
+                    throw e;
+                }
+                retries.incrementAndGet();
+                if (!backoff(attempt)) throw e;
+            }
+        }
+    }
+
+    // MySQL 1213 / 1205; SQLState 40001 is the portable serialization-failure class. Lock timeouts are
+    // matched by vendor code only: H2 also reports statement and query timeouts as HYT00.
+    static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    static final int H2_LOCK_TIMEOUT = 50200;
+
+    static Conflict classify(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (!(t instanceof SQLException)) continue;
+            SQLException s = (SQLException) t;
+            if (s.getErrorCode() == 1213 || "40001".equals(s.getSQLState())) return Conflict.DEADLOCK;
+            if (s.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT || s.getErrorCode() == H2_LOCK_TIMEOUT) return Conflict.LOCK_TIMEOUT;
+        }
+        return Conflict.NONE;
+    }
+
+    // Equal jitter: sleep between half and all of the capped exponential delay
+    private boolean backoff(int attempt) {
+        long cap = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 20));
+        long sleep = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+        try {
+            Thread.sleep(sleep);
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public Stats stats() {
+        Stats s = new Stats();
+        s.attempts = attempts.get();
+        s.commits = commits.get();
+        s.retries = retries.get();
+        s.deadlocks = deadlocks.get();
+        s.lockTimeouts = lockTimeouts.get();
+        s.exhausted = exhausted.get();
+        return s;
+    }
+}
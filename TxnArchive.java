@@ -0,0 +1,479 @@
+package db;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import db.DAOs.*;
+import db.Models.*;
+
+// Cold storage for old Txn rows. archive() copies rows older than the horizon into a new segment file,
+// makes it durable, and only then deletes those rows from MySQL in small chunks. A segment is written
+// once and never changed: one deflate-compressed block per account (its rows newest first), followed
+// by an index of (account_no, offset, length) sorted by account, and a footer pointing at the index.
+// Readers map segments read-only and binary-search the in-memory copy of each index, so an account's
+// archived rows cost one block inflate per segment that holds any.
+//
+// Only rows already folded into balance_snapshot are archived, which keeps as-of balances exact.
+// Per account, txn_no grows with tnx_date, so the archived rows are always an account's oldest ones:
+// history is the hot rows followed by the archived ones below the lowest hot txn_no. The same floor
+// drops rows that a crash between sealing a segment and deleting left in both places. Run one
+// archiver at a time; any number of processes may read.
+public class TxnArchive {
+
+    public static class Config {
+        public int horizonDays = 365;
+        public int accountBatch = 500;          // accounts read per query while archiving
+        public int deleteChunk = 1_000;         // rows per delete transaction
+        public long maxSegmentBytes = 256L << 20;
+    }
+
+    public static class Report {
+        public int segments;
+        public long accounts;
+        public long rows;
+        public long bytes;
+        public long millis;
+
+        @Override
+        public String toString() {
+            return String.format("%d rows of %d accounts archived into %d segments (%d KB), %d ms",
+                    rows, accounts, segments, bytes >> 10, millis);
+        }
+    }
+
+    public static class Stats {
+        public int segments;
+        public long bytes;
+        public long accountBlocks;
+
+        @Override
+        public String toString() {
+            return String.format("segments=%d bytes=%d accountBlocks=%d", segments, bytes, accountBlocks);
+        }
+    }
+
+    private static final int MAGIC = 0x424D5331;   // "BMS1"
+    private static final String SUFFIX = ".seg";
+    private static final String[] TYPES = {"Deposit", "Withdraw", "Transfer", "Interest"};
+
+    private final Path dir;
+    private volatile List<Segment> segments = Collections.emptyList();   // newest first
+    private volatile FileTime dirSeen;
+
+    public TxnArchive(Path dir) {
+        this.dir = dir;
+    }
+
+    // Archived rows of one account with txn_no below 'below', newest first. Segments are written by
+    // the archive job, possibly in another JVM, so the directory is re-listed when it changes.
+    public void forEach(long accountNo, int below, Consumer<Txn> sink) throws IOException {
+        int floor = below;
+        for (Segment s : current()) {
+            List<Txn> rows = s.read(accountNo);
+            int lowest = floor;
+            for (Txn t : rows) {
+                if (t.txnNo >= floor) continue;   // also present in a newer source
+                sink.accept(t);
+                lowest = Math.min(lowest, t.txnNo);
+            }
+            floor = lowest;
+        }
+    }
+
+    public List<Txn> rows(long accountNo, int below) throws IOException {
+        List<Txn> out = new ArrayList<>();
+        forEach(accountNo, below, out::add);
+        return out;
+    }
+
+    public Stats stats() throws IOException {
+        Stats st = new Stats();
+        for (Segment s : current()) {
+            st.segments++;
+            st.bytes += s.size;
+            st.accountBlocks += s.accounts.length;
+        }
+        return st;
+    }
+
+    private List<Segment> current() throws IOException {
+        if (!Files.isDirectory(dir)) return Collections.emptyList();
+        FileTime mtime = Files.getLastModifiedTime(dir);
+        if (mtime.equals(dirSeen)) return segments;
+        // a listing taken within the directory's timestamp granularity of a change could miss it
+        boolean settled = System.currentTimeMillis() - mtime.toMillis() > 2_000;
+        synchronized (this) {
+            if (mtime.equals(dirSeen)) return segments;
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+                for (Path p : ds) files.add(p);
+            }
+            files.sort(Collections.reverseOrder());   // names sort by creation time
+            List<Segment> open = new ArrayList<>(files.size());
+            for (Path p : files) {
+                Segment known = null;
+                for (Segment s : segments) if (s.path.equals(p)) known = s;
+                open.add(known != null ? known : Segment.open(p));
+            }
+            segments = Collections.unmodifiableList(open);
+            if (settled) dirSeen = mtime;
+            return segments;
+        }
+    }
+
+    // One sealed file: mapped read-only, index held as arrays
+    private static final class Segment {
+        final Path path;
+        final long size;
+        final MappedByteBuffer data;
+        final long[] accounts;
+        final long[] offsets;
+        final int[] lengths;
+        final int[] counts;
+
+        private Segment(Path path, long size, MappedByteBuffer data, int n) {
+            this.path = path;
+            this.size = size;
+            this.data = data;
+            this.accounts = new long[n];
+            this.offsets = new long[n];
+            this.lengths = new int[n];
+            this.counts = new int[n];
+        }
+
+        static Segment open(Path path) throws IOException {
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size > Integer.MAX_VALUE) throw new IOException("Segment too large to map: " + path);
+                MappedByteBuffer data = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (size < 16 || data.getInt(0) != MAGIC || data.getInt((int) size - 4) != MAGIC) {
+                    throw new IOException("Not a sealed Txn segment: " + path);
+                }
+                int indexAt = (int) data.getLong((int) size - 12);
+                int n = data.getInt(indexAt);
+                Segment s = new Segment(path, size, data, n);
+                ByteBuffer idx = data.duplicate();
+                idx.position(indexAt + 4);
+                for (int i = 0; i < n; i++) {
+                    s.accounts[i] = idx.getLong();
+                    s.offsets[i] = idx.getLong();
+                    s.lengths[i] = idx.getInt();
+                    s.counts[i] = idx.getInt();
+                }
+                return s;
+            }
+        }
+
+        List<Txn> read(long accountNo) throws IOException {
+            int i = Arrays.binarySearch(accounts, accountNo);
+            if (i < 0) return Collections.emptyList();
+            byte[] packed = new byte[lengths[i]];
+            ByteBuffer b = data.duplicate();
+            b.position((int) offsets[i]);
+            b.get(packed);
+            Inflater inf = new Inflater();
+            try {
+                inf.setInput(packed);
+                ByteArrayOutputStream raw = new ByteArrayOutputStream(packed.length * 4);
+                byte[] buf = new byte[8192];
+                while (!inf.finished()) {
+                    int n = inf.inflate(buf);
+                    if (n == 0 && (inf.needsInput() || inf.needsDictionary())) throw new IOException("Truncated block in " + path);
+                    raw.write(buf, 0, n);
+                }
+                return decode(accountNo, ByteBuffer.wrap(raw.toByteArray()), counts[i]);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt block in " + path + ": " + e.getMessage(), e);
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    // Block encoding, newest row first: txn_no, then descending deltas; type index; epoch second and
+    // nanos; amount in cents. All varints, so a typical row is 6-8 bytes before compression.
+    private static void encode(List<Txn> newestFirst, DataOutputStream out) throws IOException {
+        int prevNo = 0;
+        long prevSec = 0;
+        for (int i = 0; i < newestFirst.size(); i++) {
+            Txn t = newestFirst.get(i);
+            long sec = t.tnxDate.toEpochSecond(ZoneOffset.UTC);
+            writeVarLong(out, i == 0 ? t.txnNo : prevNo - t.txnNo);
+            out.writeByte(typeIndex(t.txnType));
+            writeVarLong(out, zigzag(i == 0 ? sec : prevSec - sec));
+            writeVarLong(out, t.tnxDate.getNano());
+            writeVarLong(out, zigzag(Money.of(t.amount).cents()));
+            prevNo = t.txnNo;
+            prevSec = sec;
+        }
+    }
+
+    private static List<Txn> decode(long accountNo, ByteBuffer in, int count) {
+        List<Txn> rows = new ArrayList<>(count);
+        int no = 0;
+        long sec = 0;
+        for (int i = 0; i < count; i++) {
+            long dNo = readVarLong(in);
+            no = i == 0 ? (int) dNo : no - (int) dNo;
+            String type = TYPES[in.get()];
+            long dSec = unzigzag(readVarLong(in));
+            sec = i == 0 ? dSec : sec - dSec;
+            int nanos = (int) readVarLong(in);
+            long cents = unzigzag(readVarLong(in));
+            Txn t = new Txn();
+            t.accountNo = accountNo;
+            t.txnNo = no;
+            t.txnType = type;
+            t.tnxDate = LocalDateTime.ofEpochSecond(sec, nanos, ZoneOffset.UTC);
+            t.amount = Money.ofCents(cents).toBigDecimal();
+            rows.add(t);
+        }
+        return rows;
+    }
+
+    private static int typeIndex(String type) {
+        for (int i = 0; i < TYPES.length; i++) if (TYPES[i].equals(type)) return i;
+        throw new IllegalStateException("Unknown Txn type " + type);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+    }
+
+    // Writes one segment under a temporary name; seal() makes it durable and visible atomically
+    private static final class SegmentWriter implements AutoCloseable {
+        final Path tmp;
+        final Path target;
+        final DataOutputStream out;
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        final List<long[]> index = new ArrayList<>();   // {account, offset, length, count}
+        final List<long[]> archived = new ArrayList<>(); // {account, lowest txn_no, highest txn_no, rows}
+        long position;
+
+        SegmentWriter(Path dir) throws IOException {
+            // zero-padded creation millis, so names sort oldest to newest
+            long stamp = System.currentTimeMillis();
+            while (Files.exists(dir.resolve(name(stamp) + SUFFIX)) || Files.exists(dir.resolve(name(stamp) + ".tmp"))) stamp++;
+            this.target = dir.resolve(name(stamp) + SUFFIX);
+            this.tmp = dir.resolve(name(stamp) + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 1 << 16));
+            out.writeInt(MAGIC);
+            position = 4;
+        }
+
+        private static String name(long stamp) {
+            return String.format("txn-%013d", stamp);
+        }
+
+        // newestFirst: one account's rows in descending txn_no
+        void add(long accountNo, List<Txn> newestFirst) throws IOException {
+            block.reset();
+            try (DataOutputStream raw = new DataOutputStream(block)) {
+                encode(newestFirst, raw);
+            }
+            byte[] input = block.toByteArray();
+            deflater.reset();
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buf = new byte[Math.max(64, input.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+                length += n;
+            }
+            index.add(new long[]{accountNo, position, length, newestFirst.size()});
+            archived.add(new long[]{accountNo, newestFirst.get(newestFirst.size() - 1).txnNo, newestFirst.get(0).txnNo, newestFirst.size()});
+            position += length;
+        }
+
+        long size() {
+            return position;
+        }
+
+        Path seal() throws IOException {
+            long indexAt = position;
+            out.writeInt(index.size());
+            for (long[] e : index) {
+                out.writeLong(e[0]);
+                out.writeLong(e[1]);
+                out.writeInt((int) e[2]);
+                out.writeInt((int) e[3]);
+            }
+            out.writeLong(indexAt);
+            out.writeInt(MAGIC);
+            out.flush();
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            out.close();
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            try (FileChannel d = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+                d.force(true);   // persist the rename where the platform allows it
+            } catch (IOException ignored) {
+                // directories cannot be opened for sync on every platform
+            }
+            return target;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            out.close();
+            Files.deleteIfExists(tmp);   // no-op after seal()
+        }
+    }
+
+    private final TxnDAO txnDAO = new TxnDAO();
+
+    // Rows older than now - horizonDays move to new segments; each sealed segment's rows are then
+    // deleted from Txn. Safe to rerun after a crash at any point.
+    public Report archive(Config cfg) throws SQLException, IOException {
+        if (cfg.horizonDays < 0 || cfg.accountBatch <= 0 || cfg.deleteChunk <= 0) throw new IllegalArgumentException("Invalid archive settings.");
+        long t0 = System.nanoTime();
+        Report rep = new Report();
+        Files.createDirectories(dir);
+        LocalDateTime horizon = LocalDateTime.now().minusDays(cfg.horizonDays);
+        SegmentWriter w = null;
+        try {
+            long after = 0;
+            while (true) {
+                List<Txn> rows;
+                List<Long> accounts;
+                try (Connection con = DBConnection.getConnection()) {
+                    accounts = txnDAO.archiveCandidates(con, after, cfg.accountBatch);
+                    if (accounts.isEmpty()) break;
+                    rows = txnDAO.archivable(con, accounts, horizon);
+                }
+                int i = 0;
+                while (i < rows.size()) {
+                    long acc = rows.get(i).accountNo;
+                    int j = i;
+                    while (j < rows.size() && rows.get(j).accountNo == acc) j++;
+                    if (w == null) w = new SegmentWriter(dir);
+                    w.add(acc, rows.subList(i, j));
+                    i = j;
+                }
+                if (w != null && w.size() >= cfg.maxSegmentBytes) {
+                    finish(w, cfg, horizon, rep);
+                    w = null;
+                }
+                after = accounts.get(accounts.size() - 1);
+            }
+            if (w != null) {
+                finish(w, cfg, horizon, rep);
+                w = null;
+            }
+        } finally {
+            if (w != null) w.close();
+        }
+        rep.millis = (System.nanoTime() - t0) / 1_000_000;
+        return rep;
+    }
+
+    private void finish(SegmentWriter w, Config cfg, LocalDateTime horizon, Report rep) throws IOException, SQLException {
+        Path sealed;
+        try {
+            sealed = w.seal();
+        } finally {
+            w.close();
+        }
+        rep.segments++;
+        rep.bytes += Files.size(sealed);
+        rep.accounts += w.archived.size();
+        for (long[] a : w.archived) rep.rows += a[3];
+        delete(w.archived, cfg.deleteChunk, horizon);
+    }
+
+    // Small transactions so the purge never holds many row locks or a long undo log. The horizon is
+    // part of each DELETE, so a range can only ever remove rows that archive() selected.
+    private void delete(List<long[]> archived, int chunk, LocalDateTime horizon) throws SQLException {
+        try (Connection con = DBConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try {
+                List<long[]> batch = new ArrayList<>();
+                long pending = 0;
+                for (long[] a : archived) {
+                    for (long lo = a[1] - 1; lo < a[2]; lo += chunk) {
+                        long hi = Math.min(a[2], lo + chunk);
+                        batch.add(new long[]{a[0], lo, hi});
+                        pending += hi - lo;
+                        if (pending >= chunk) {
+                            txnDAO.deleteArchived(con, batch, horizon);
+                            con.commit();
+                            batch.clear();
+                            pending = 0;
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    txnDAO.deleteArchived(con, batch, horizon);
+                    con.commit();
+                }
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            } finally { con.setAutoCommit(true); }
+        }
+    }
+
+    // java db.TxnArchive [horizonDays]
+    public static void main(String[] args) throws Exception {
+        Config cfg = new Config();
+        cfg.horizonDays = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("bms.archive.horizonDays", cfg.horizonDays);
+        cfg.accountBatch = Integer.getInteger("bms.archive.accountBatch", cfg.accountBatch);
+        cfg.deleteChunk = Integer.getInteger("bms.archive.deleteChunk", cfg.deleteChunk);
+        cfg.maxSegmentBytes = Long.getLong("bms.archive.maxSegmentMb", cfg.maxSegmentBytes >> 20) << 20;
+        TxnArchive archive = new TxnArchive(Paths.get(System.getProperty("bms.archive.dir", "archive")));
+        System.out.println(archive.archive(cfg));
+        System.out.println(archive.stats());
+        System.exit(0);
+    }
+}
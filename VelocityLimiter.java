@@ -0,0 +1,279 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import db.DAOs.*;
+
+// Per-account velocity limits on money leaving an account (withdrawals and outgoing transfers): at
+// most maxCount debits and maxCents in total over a sliding window, checked in memory before the
+// posting reaches the database. The window is split into buckets (10 x 1 minute by default), so it
+// slides one bucket at a time.
+//
+// Counters live in striped open-addressing tables of primitive arrays, about 170 bytes per tracked
+// account and nothing per idle one. A slot whose account has been idle for a whole window is free
+// for reuse, so memory is bounded by maxAccounts; only if every slot in an account's probe range is
+// active is the least recently used one taken over (counted in Stats.evictedActive).
+//
+// Limits are per tier: Account.tier names a row of velocity_limit. Both are cached and refreshed
+// every tierTtlMs in the background: debits keep using the previous maps while a reload runs, and
+// after a failed one until a retry succeeds. A tier without a row is not limited. warm() replays
+// the last window of Txn rows so a restart does not reset everyone's counters.
+public class VelocityLimiter {
+
+    public static class Limit {
+        public final int maxCount;
+        public final long maxCents;
+
+        public Limit(int maxCount, long maxCents) {
+            this.maxCount = maxCount;
+            this.maxCents = maxCents;
+        }
+    }
+
+    public static class Config {
+        public long windowMs = 10 * 60_000;
+        public int buckets = 10;
+        public int maxAccounts = 1 << 17;
+        public int stripes = 64;
+        public String defaultTier = "standard";
+        public long tierTtlMs = 300_000;
+        public long reloadRetryMs = 5_000;   // after a failed background reload of tiers or limits
+    }
+
+    public static class Stats {
+        public long checks;
+        public long rejected;
+        public long released;
+        public long evictedActive;
+        public long tracked;
+
+        @Override
+        public String toString() {
+            return String.format("checks=%d rejected=%d released=%d evictedActive=%d tracked=%d",
+                    checks, rejected, released, evictedActive, tracked);
+        }
+    }
+
+    private static final int PROBES = 16;
+    public static final int UNLIMITED = Integer.MIN_VALUE;   // acquire() token when nothing was recorded
+
+    private final Config cfg;
+    private final int buckets;
+    private final long bucketMs;
+    private final long baseMs = System.currentTimeMillis();
+    private final Stripe[] stripes;
+    private final ReferenceCache<Map<Long, String>> tiers;
+    private final ReferenceCache<Map<String, Limit>> limits;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder evictedActive = new LongAdder();
+
+    // tiers: accounts that are not on cfg.defaultTier; limits: per tier name
+    public VelocityLimiter(Config cfg, ReferenceCache.Loader<Map<Long, String>> tiers, ReferenceCache.Loader<Map<String, Limit>> limits) {
+        if (cfg.buckets <= 0 || cfg.windowMs < cfg.buckets || cfg.stripes <= 0 || cfg.maxAccounts < cfg.stripes) {
+            throw new IllegalArgumentException("Invalid velocity limiter settings.");
+        }
+        this.cfg = cfg;
+        this.buckets = cfg.buckets;
+        this.bucketMs = cfg.windowMs / cfg.buckets;
+        int stripeCount = Integer.highestOneBit(cfg.stripes);
+        int perStripe = Math.max(PROBES, Integer.highestOneBit(cfg.maxAccounts / stripeCount));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) stripes[i] = new Stripe(perStripe);
+        this.tiers = new ReferenceCache<>(cfg.tierTtlMs, tiers);
+        this.limits = new ReferenceCache<>(cfg.tierTtlMs, limits);
+    }
+
+    // Limits from Account.tier and velocity_limit
+    public static VelocityLimiter fromDatabase(Config cfg) {
+        AccountDAO dao = new AccountDAO();
+        return new VelocityLimiter(cfg, () -> {
+            try (Connection con = DBConnection.getConnection()) {
+                return Collections.unmodifiableMap(dao.tiersExcept(con, cfg.defaultTier));
+            }
+        }, () -> {
+            Map<String, Limit> out = new HashMap<>();
+            try (Connection con = DBConnection.getConnection()) {
+                dao.velocityLimits(con).forEach((tier, l) -> out.put(tier, new Limit((int) l[0], l[1])));
+            }
+            return Collections.unmodifiableMap(out);
+        });
+    }
+
+    // One table of accounts; every access holds the stripe's monitor
+    private final class Stripe {
+        final long[] keys;          // account_no, 0 = never used
+        final int[] lastBucket;     // newest bucket the account posted in
+        final int[] bucketIds;      // [slot * buckets + bucket % buckets]
+        final int[] counts;
+        final long[] cents;
+
+        Stripe(int capacity) {
+            keys = new long[capacity];
+            lastBucket = new int[capacity];
+            bucketIds = new int[capacity * buckets];
+            counts = new int[capacity * buckets];
+            cents = new long[capacity * buckets];
+        }
+
+        // The account's slot; with create, claims a free, idle or least recently used one
+        int slot(long accountNo, int now, boolean create) {
+            int mask = keys.length - 1;
+            int h = (int) (mix(accountNo) & mask);
+            int free = -1, oldest = -1;
+            for (int p = 0; p < PROBES; p++) {
+                int i = (h + p) & mask;
+                long k = keys[i];
+                if (k == accountNo) return i;
+                if (k == 0) {
+                    if (free < 0) free = i;
+                    break;   // slots are never emptied, so the account is not further along
+                }
+                if (lastBucket[i] <= now - buckets) {
+                    if (free < 0) free = i;
+                } else if (oldest < 0 || lastBucket[i] < lastBucket[oldest]) {
+                    oldest = i;
+                }
+            }
+            if (!create) return -1;
+            int i = free;
+            if (i < 0) {
+                i = oldest;
+                evictedActive.increment();
+            }
+            keys[i] = accountNo;
+            lastBucket[i] = now;
+            int base = i * buckets;
+            for (int b = 0; b < buckets; b++) {
+                bucketIds[base + b] = Integer.MIN_VALUE;
+                counts[base + b] = 0;
+                cents[base + b] = 0;
+            }
+            return i;
+        }
+
+        void record(int i, int bucket, int n, long amount) {
+            int idx = i * buckets + Math.floorMod(bucket, buckets);
+            if (bucketIds[idx] != bucket) {
+                if (bucketIds[idx] > bucket) return;   // older than the window this slot holds
+                bucketIds[idx] = bucket;
+                counts[idx] = 0;
+                cents[idx] = 0;
+            }
+            counts[idx] += n;
+            cents[idx] += amount;
+            if (bucket > lastBucket[i]) lastBucket[i] = bucket;
+        }
+    }
+
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    private Stripe stripe(long accountNo) {
+        return stripes[(int) (mix(accountNo) >>> 40) & (stripes.length - 1)];
+    }
+
+    private int bucket(long epochMs) {
+        return (int) Math.floorDiv(epochMs - baseMs, bucketMs);
+    }
+
+    private Limit limitFor(long accountNo) throws SQLException {
+        String tier = tiers.getOrStale(cfg.reloadRetryMs).getOrDefault(accountNo, cfg.defaultTier);
+        return limits.getOrStale(cfg.reloadRetryMs).get(tier);
+    }
+
+    // Counts a debit against the account's window, or throws when it would exceed the tier's limit.
+    // Returns a token for release() if the posting then fails.
+    public int acquire(long accountNo, Money amount) throws SQLException {
+        checks.increment();
+        Limit limit = limitFor(accountNo);
+        if (limit == null) return UNLIMITED;
+        int now = bucket(System.currentTimeMillis());
+        Stripe s = stripe(accountNo);
+        synchronized (s) {
+            int i = s.slot(accountNo, now, true);
+            int count = 0;
+            long total = 0;
+            int base = i * buckets;
+            for (int b = 0; b < buckets; b++) {
+                if (s.bucketIds[base + b] > now - buckets) {
+                    count += s.counts[base + b];
+                    total += s.cents[base + b];
+                }
+            }
+            if (count + 1 > limit.maxCount || total + amount.cents() > limit.maxCents) {
+                rejected.increment();
+                throw new IllegalArgumentException("Velocity limit exceeded. Please try again later.");
+            }
+            s.record(i, now, 1, amount.cents());
+        }
+        return now;
+    }
+
+    // Takes back an acquire() whose posting did not happen
+    public void release(long accountNo, Money amount, int token) {
+        if (token == UNLIMITED) return;
+        Stripe s = stripe(accountNo);
+        synchronized (s) {
+            int i = s.slot(accountNo, bucket(System.currentTimeMillis()), false);
+            if (i < 0) return;
+            int idx = i * buckets + Math.floorMod(token, buckets);
+            if (s.bucketIds[idx] != token) return;   // bucket already left the window
+            s.counts[idx] = Math.max(0, s.counts[idx] - 1);
+            s.cents[idx] = Math.max(0, s.cents[idx] - amount.cents());
+        }
+        released.increment();
+    }
+
+    // Replays the last window of withdrawals and outgoing transfers; returns the rows counted
+    public long warm() throws SQLException {
+        long nowMs = System.currentTimeMillis();
+        int now = bucket(nowMs);
+        ZoneId zone = ZoneId.systemDefault();
+        long[] rows = {0};
+        LocalDateTime since = LocalDateTime.ofInstant(Instant.ofEpochMilli(nowMs - cfg.windowMs), zone);
+        try (Connection con = DBConnection.getConnection()) {
+            new TxnDAO().debitsSince(con, since, 1_000, t -> {
+                int b = bucket(t.tnxDate.atZone(zone).toInstant().toEpochMilli());
+                if (b <= now - buckets || b > now) return;
+                Stripe s = stripe(t.accountNo);
+                synchronized (s) {
+                    s.record(s.slot(t.accountNo, now, true), b, 1, Money.of(t.amount).cents());
+                }
+                rows[0]++;
+            });
+        }
+        return rows[0];
+    }
+
+    public Stats stats() {
+        Stats st = new Stats();
+        st.checks = checks.sum();
+        st.rejected = rejected.sum();
+        st.released = released.sum();
+        st.evictedActive = evictedActive.sum();
+        int now = bucket(System.currentTimeMillis());
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                for (int i = 0; i < s.keys.length; i++) {
+                    if (s.keys[i] != 0 && s.lastBucket[i] > now - buckets) st.tracked++;
+                }
+            }
+        }
+        return st;
+    }
+}
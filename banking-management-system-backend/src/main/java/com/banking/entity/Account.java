@@ -2,7 +2,7 @@ package com.banking.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
-import java.math.BigDecimal;
+import org.hibernate.annotations.ColumnTransformer;
 
 @Entity
 @Table(name = "Account")
@@ -12,9 +12,14 @@ public class Account {
     @Column(name = "account_no")
     private long accountNo;
     
-    @Column(name = "balance", precision = 15, scale = 2, columnDefinition = "DECIMAL(15,2) DEFAULT 0.00")
-    private BigDecimal balance;
+    @Column(name = "balance", columnDefinition = "DECIMAL(15,2) DEFAULT 0.00")
+    @Convert(converter = MoneyConverter.class)
+    @ColumnTransformer(read = "balance * 100", write = "? * 0.01")
+    private Money balance;
     
     @Column(name = "customer_id")
     private int customerId;
+    
+    @Column(name = "next_txn_no", nullable = false, columnDefinition = "INT NOT NULL DEFAULT 1")
+    private int nextTxnNo = 1;
 }
\ No newline at end of file
@@ -2,7 +2,9 @@ package com.banking.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.ColumnTransformer;
 import java.math.BigDecimal;
+import java.time.LocalDate;
 
 @Entity
 @Table(name = "Loan")
@@ -15,12 +17,31 @@ public class Loan {
     @Column(name = "loan_type", nullable = false, length = 50)
     private String loanType;
     
-    @Column(name = "loan_amount", precision = 15, scale = 2, nullable = false)
-    private BigDecimal loanAmount;
+    @Column(name = "loan_amount", nullable = false, columnDefinition = "DECIMAL(15,2) NOT NULL")
+    @Convert(converter = MoneyConverter.class)
+    @ColumnTransformer(read = "loan_amount * 100", write = "? * 0.01")
+    private Money loanAmount;
     
     @Column(name = "status", length = 10, columnDefinition = "ENUM('Pending','Approved','Rejected') DEFAULT 'Pending'")
     private String status;
     
     @Column(name = "customer_id")
     private int customerId;
+
+    // Fixed rate; null follows loan_rate for the loan type
+    @Column(name = "annual_rate", precision = 5, scale = 2)
+    private BigDecimal annualRate;
+
+    @Column(name = "tenure_months", nullable = false, columnDefinition = "INT NOT NULL DEFAULT 60")
+    private int tenureMonths = 60;
+
+    // Installments fall due monthly after this date; set on approval
+    @Column(name = "start_date")
+    private LocalDate startDate;
+
+    // Maintained by the console app's LoanSchedules
+    @Column(name = "emi", columnDefinition = "DECIMAL(15,2)")
+    @Convert(converter = MoneyConverter.class)
+    @ColumnTransformer(read = "emi * 100", write = "? * 0.01")
+    private Money emi;
 }
\ No newline at end of file
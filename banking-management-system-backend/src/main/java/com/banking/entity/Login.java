@@ -4,7 +4,7 @@ import jakarta.persistence.*;
 import lombok.Data;
 
 @Entity
-@Table(name = "Login")
+@Table(name = "Login", uniqueConstraints = @UniqueConstraint(name = "uq_login_username", columnNames = "username"))
 @Data
 public class Login {
     @Id
@@ -14,7 +14,8 @@ public class Login {
     @Column(name = "username", length = 50)
     private String username;
     
-    @Column(name = "password", length = 50)
+    // pbkdf2-sha512$<iterations>$<salt>$<hash>, see the console app's PasswordHasher
+    @Column(name = "password", length = 255)
     private String password;
     
     @Column(name = "customer_id")
@@ -0,0 +1,76 @@
+package com.banking.entity;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Amount of money as a long count of cents within the DECIMAL(15,2) column range; the same type as
+// db.Money in the console app. Entities map it with MoneyConverter plus a @ColumnTransformer that
+// scales in SQL (column * 100 on read, ? * 0.01 on write), so JDBC carries a long both ways.
+public final class Money implements Comparable<Money>, Serializable {
+
+    public static final long MAX_CENTS = 999_999_999_999_999L;
+
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        if (cents == 0) return ZERO;
+        if (cents > MAX_CENTS || cents < -MAX_CENTS) throw new ArithmeticException("Amount out of DECIMAL(15,2) range: " + cents + " cents");
+        return new Money(cents);
+    }
+
+    // Rounds half away from zero, as MySQL does when storing into DECIMAL(15,2)
+    public static Money of(BigDecimal amount) {
+        BigDecimal c = amount.setScale(2, RoundingMode.HALF_UP).movePointRight(2);
+        if (c.abs().compareTo(BigDecimal.valueOf(MAX_CENTS)) > 0) throw new IllegalArgumentException("Amount is too large.");
+        return ofCents(c.longValueExact());
+    }
+
+    public long cents() {
+        return cents;
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(cents, other.cents));
+    }
+
+    public boolean isPositive() {
+        return cents > 0;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    @Override
+    public String toString() {
+        long abs = Math.abs(cents);
+        long frac = abs % 100;
+        return (cents < 0 ? "-" : "") + abs / 100 + (frac < 10 ? ".0" : ".") + frac;
+    }
+}
@@ -0,0 +1,20 @@
+package com.banking.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+// Money <-> cents. Only correct together with a @ColumnTransformer that scales the DECIMAL(15,2)
+// column, e.g. read = "amount * 100", write = "? * 0.01"
+@Converter
+public class MoneyConverter implements AttributeConverter<Money, Long> {
+
+    @Override
+    public Long convertToDatabaseColumn(Money money) {
+        return money == null ? null : money.cents();
+    }
+
+    @Override
+    public Money convertToEntityAttribute(Long cents) {
+        return cents == null ? null : Money.ofCents(cents);
+    }
+}
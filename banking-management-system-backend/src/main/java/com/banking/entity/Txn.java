@@ -2,13 +2,21 @@ package com.banking.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
-import java.math.BigDecimal;
+import org.hibernate.annotations.ColumnTransformer;
+import org.springframework.data.domain.Persistable;
 import java.time.LocalDateTime;
 
+// Keys are assigned by the application (Account.next_txn_no), so Persistable tells Spring Data a
+// fresh Txn is new: saveAll() then persists in JDBC batches instead of merging row by row
 @Entity
-@Table(name = "Txn")
+@Table(name = "Txn", indexes = @Index(name = "idx_txn_account_date", columnList = "account_no, tnx_date, txn_no"))
+@IdClass(TxnId.class)
 @Data
-public class Txn {
+public class Txn implements Persistable<TxnId> {
+    @Id
+    @Column(name = "account_no")
+    private long accountNo;
+
     @Id
     @Column(name = "txn_no")
     private int txnNo;
@@ -16,12 +24,35 @@ public class Txn {
     @Column(name = "txn_type", nullable = false, length = 10)
     private String txnType;
     
-    @Column(name = "tnx_date", columnDefinition = "TIMESTAMP DEFAULT CURRENT_TIMESTAMP")
+    @Column(name = "tnx_date", nullable = false, columnDefinition = "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP")
     private LocalDateTime tnxDate;
     
-    @Column(name = "amount", precision = 15, scale = 2, nullable = false)
-    private BigDecimal amount;
-    
-    @Column(name = "account_no")
-    private long accountNo;
-}
\ No newline at end of file
+    @Column(name = "amount", nullable = false, columnDefinition = "DECIMAL(15,2) NOT NULL")
+    @Convert(converter = MoneyConverter.class)
+    @ColumnTransformer(read = "amount * 100", write = "? * 0.01")
+    private Money amount;
+
+    @Transient
+    private boolean isNew = true;
+
+    @Override
+    public TxnId getId() {
+        return new TxnId(accountNo, txnNo);
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PrePersist
+    void onPersist() {
+        if (tnxDate == null) tnxDate = LocalDateTime.now();
+    }
+
+    @PostPersist
+    @PostLoad
+    void markNotNew() {
+        isNew = false;
+    }
+}
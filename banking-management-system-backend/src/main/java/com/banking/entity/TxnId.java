@@ -0,0 +1,15 @@
+package com.banking.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.io.Serializable;
+
+// Primary key of Txn: PRIMARY KEY(account_no, txn_no) in BMS.sql
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TxnId implements Serializable {
+    private long accountNo;
+    private int txnNo;
+}
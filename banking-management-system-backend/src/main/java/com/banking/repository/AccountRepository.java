@@ -1,9 +1,21 @@
 package com.banking.repository;
 
 import com.banking.entity.Account;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface AccountRepository extends JpaRepository<Account, Long> {
-}
\ No newline at end of file
+
+    // SELECT ... FOR UPDATE in account_no order, like the console app's AccountDAO.lockForUpdate
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a WHERE a.accountNo IN :accountNos ORDER BY a.accountNo")
+    List<Account> lockForUpdate(@Param("accountNos") Collection<Long> accountNos);
+}
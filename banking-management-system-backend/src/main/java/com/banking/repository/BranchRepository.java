@@ -1,9 +1,19 @@
 package com.banking.repository;
 
 import com.banking.entity.Branch;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.AvailableHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface BranchRepository extends JpaRepository<Branch, Integer> {
+
+    // Served from the query cache until a Branch row changes through JPA
+    @Override
+    @QueryHints(@QueryHint(name = AvailableHints.HINT_CACHEABLE, value = "true"))
+    List<Branch> findAll();
 }
\ No newline at end of file
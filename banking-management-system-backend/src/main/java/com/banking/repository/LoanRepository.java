@@ -1,9 +1,14 @@
 package com.banking.repository;
 
 import com.banking.entity.Loan;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface LoanRepository extends JpaRepository<Loan, Integer> {
+    // Keyset page in loan_id order, e.g. ("Approved", lastSeenId, Limit.of(1000)); same walk as LoanDAO.approvedPage
+    List<Loan> findByStatusAndLoanIdGreaterThanOrderByLoanIdAsc(String status, int afterLoanId, Limit limit);
 }
\ No newline at end of file
@@ -1,9 +1,10 @@
 package com.banking.repository;
 
 import com.banking.entity.Txn;
+import com.banking.entity.TxnId;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface TxnRepository extends JpaRepository<Txn, Integer> {
-}
\ No newline at end of file
+public interface TxnRepository extends JpaRepository<Txn, TxnId> {
+}
@@ -0,0 +1,62 @@
+package com.banking.service;
+
+import com.banking.entity.Branch;
+import com.banking.entity.Employee;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Explicit eviction and hit ratios for the "reference" second-level cache region (Branch, Employee).
+// Writes through JPA keep the region current on their own; call evictAll() (or DELETE
+// /actuator/referencedata) after changing those tables any other way, e.g. from the console app.
+@Component
+@Endpoint(id = "referencedata")
+public class ReferenceDataCache {
+
+    public static final String REGION = "reference";
+
+    private final SessionFactory sessionFactory;
+
+    public ReferenceDataCache(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    public void evictBranches() {
+        sessionFactory.getCache().evictEntityData(Branch.class);
+        sessionFactory.getCache().evictDefaultQueryRegion();
+    }
+
+    public void evictEmployees() {
+        sessionFactory.getCache().evictEntityData(Employee.class);
+        sessionFactory.getCache().evictDefaultQueryRegion();
+    }
+
+    @DeleteOperation
+    public void evictAll() {
+        sessionFactory.getCache().evictRegion(REGION);
+        sessionFactory.getCache().evictDefaultQueryRegion();
+    }
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        CacheRegionStatistics region = sessionFactory.getStatistics().getDomainDataRegionStatistics(REGION);
+        long hits = region.getHitCount();
+        long misses = region.getMissCount();
+        out.put("region", REGION);
+        out.put("hits", hits);
+        out.put("misses", misses);
+        out.put("puts", region.getPutCount());
+        out.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        out.put("queryCacheHits", sessionFactory.getStatistics().getQueryCacheHitCount());
+        out.put("queryCacheMisses", sessionFactory.getStatistics().getQueryCacheMissCount());
+        return out;
+    }
+}
@@ -0,0 +1,71 @@
+package com.banking.service;
+
+import com.banking.entity.Account;
+import com.banking.entity.Txn;
+import com.banking.repository.AccountRepository;
+import com.banking.repository.TxnRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Bulk Txn writes. Each account's txn_no range is reserved from Account.next_txn_no under a row lock
+// in the same transaction, as the console app's TxnDAO does, so these keys never collide with
+// postings made elsewhere. Rows then go through saveAll in chunks of hibernate.jdbc.batch_size; each
+// chunk is flushed as batched INSERTs and then detached, so the persistence context stays small for
+// large runs.
+@Service
+public class TxnLedgerWriter {
+
+    private final TxnRepository txnRepository;
+    private final AccountRepository accountRepository;
+    private final EntityManager entityManager;
+    private final int chunkSize;
+
+    public TxnLedgerWriter(TxnRepository txnRepository, AccountRepository accountRepository, EntityManager entityManager,
+                           @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:500}") int chunkSize) {
+        this.txnRepository = txnRepository;
+        this.accountRepository = accountRepository;
+        this.entityManager = entityManager;
+        this.chunkSize = chunkSize;
+    }
+
+    // Assigns txnNo to every row; any txnNo already set is overwritten
+    @Transactional
+    public int writeAll(List<Txn> rows) {
+        if (rows.isEmpty()) return 0;
+        reserveTxnNos(rows);
+        for (int from = 0; from < rows.size(); from += chunkSize) {
+            txnRepository.saveAll(rows.subList(from, Math.min(rows.size(), from + chunkSize)));
+            entityManager.flush();
+            entityManager.clear();
+        }
+        return rows.size();
+    }
+
+    private void reserveTxnNos(List<Txn> rows) {
+        Map<Long, Integer> counts = new TreeMap<>();
+        for (Txn t : rows) counts.merge(t.getAccountNo(), 1, Integer::sum);
+        List<Long> accountNos = new ArrayList<>(counts.keySet());
+        Map<Long, Integer> next = new HashMap<>();
+        for (int from = 0; from < accountNos.size(); from += chunkSize) {
+            for (Account a : accountRepository.lockForUpdate(accountNos.subList(from, Math.min(accountNos.size(), from + chunkSize)))) {
+                next.put(a.getAccountNo(), a.getNextTxnNo());
+                a.setNextTxnNo(a.getNextTxnNo() + counts.get(a.getAccountNo()));
+            }
+        }
+        for (Txn t : rows) {
+            Integer txnNo = next.get(t.getAccountNo());
+            if (txnNo == null) throw new IllegalArgumentException("Account not found: " + t.getAccountNo());
+            t.setTxnNo(txnNo);
+            next.put(t.getAccountNo(), txnNo + 1);
+        }
+        entityManager.flush();
+    }
+}
@@ -0,0 +1,99 @@
+package com.banking.service;
+
+import com.banking.entity.Account;
+import com.banking.entity.Money;
+import com.banking.entity.Txn;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 100k Txn inserts through TxnLedgerWriter, batched vs one statement per row, on embedded H2.
+// Opt-in: mvn test -Dtest=TxnBatchInsertBenchmarkTest -Dbms.bench=true
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@Import(TxnLedgerWriter.class)
+@EnabledIfSystemProperty(named = "bms.bench", matches = "true")
+class TxnBatchInsertBenchmarkTest {
+
+    private static final int ROWS = 100_000;
+    private static final int ACCOUNTS = 100;
+    private static final long FIRST_ACCOUNT = 100_000_001L;
+
+    @Autowired
+    private TxnLedgerWriter writer;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void insert100kTxnRows() {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Account a = new Account();
+            a.setAccountNo(FIRST_ACCOUNT + i);
+            a.setBalance(Money.ZERO);
+            entityManager.persist(a);
+        }
+        entityManager.flush();
+        Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        entityManager.unwrap(Session.class).setJdbcBatchSize(1);
+        Result single = run(stats, rows());
+        entityManager.unwrap(Session.class).setJdbcBatchSize(null);
+        Result batched = run(stats, rows());
+
+        System.out.printf("per-row: %d rows in %d ms, %d statements%n", ROWS, single.millis, single.statements);
+        System.out.printf("batched: %d rows in %d ms, %d statements%n", ROWS, batched.millis, batched.statements);
+        assertEquals(ROWS, batched.inserts);
+        assertTrue(batched.statements * 100 <= ROWS, "expected batched inserts, got " + batched.statements + " statements");
+        // Both runs reserved their txn_no ranges from next_txn_no
+        assertEquals(1 + 2 * ROWS / ACCOUNTS, entityManager.find(Account.class, FIRST_ACCOUNT).getNextTxnNo());
+    }
+
+    private Result run(Statistics stats, List<Txn> rows) {
+        stats.clear();
+        long start = System.nanoTime();
+        writer.writeAll(rows);
+        Result r = new Result();
+        r.millis = (System.nanoTime() - start) / 1_000_000;
+        r.statements = stats.getPrepareStatementCount();
+        r.inserts = stats.getEntityInsertCount();
+        return r;
+    }
+
+    // ROWS rows spread over ACCOUNTS accounts; the writer numbers them
+    private static List<Txn> rows() {
+        List<Txn> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Txn t = new Txn();
+            t.setAccountNo(FIRST_ACCOUNT + i % ACCOUNTS);
+            t.setTxnType("Deposit");
+            t.setAmount(Money.ofCents((100 + i % 900) * 100L));
+            rows.add(t);
+        }
+        return rows;
+    }
+
+    private static class Result {
+        long millis;
+        long statements;
+        long inserts;
+    }
+}
@@ -0,0 +1,167 @@
+package db.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+// Embedded H2 in MySQL mode, created from the repository's BMS.sql and grown to the requested size.
+// Must be configured before anything touches db.DBConnection, whose pool reads bms.db.* once.
+public final class BenchDatabase {
+
+    public static final String URL = "jdbc:h2:mem:bms;MODE=MySQL;DATABASE_TO_LOWER=TRUE;"
+            + "CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+    public static final String USER = "sa";
+    public static final String PASSWORD = "";
+
+    // Generated rows start well above the seeded ones
+    public static final int FIRST_CUSTOMER = 100_000;
+    public static final long FIRST_ACCOUNT = 900_000_000L;
+    public static final BigDecimal OPENING_BALANCE = new BigDecimal("1000000000.00");
+
+    private static final String[] TXN_TYPES = {"Deposit", "Withdraw", "Transfer"};
+
+    private BenchDatabase() {
+    }
+
+    public static void configure(int poolSize) {
+        System.setProperty("bms.db.url", URL);
+        System.setProperty("bms.db.user", USER);
+        System.setProperty("bms.db.password", PASSWORD);
+        System.setProperty("bms.pool.maxSize", Integer.toString(poolSize));
+        System.setProperty("bms.pool.minIdle", Integer.toString(Math.min(poolSize, 4)));
+    }
+
+    // Rebuilds the schema from BMS.sql, then adds `accounts` customers (one account and login each)
+    // with `txnPerAccount` history rows apiece
+    public static void seed(int accounts, int txnPerAccount) throws SQLException, IOException {
+        try (Connection con = DriverManager.getConnection(URL, USER, PASSWORD)) {
+            try (Statement st = con.createStatement()) {
+                st.execute("DROP ALL OBJECTS");
+                for (String sql : schemaStatements()) st.execute(sql);
+            }
+            con.setAutoCommit(false);
+            insertCustomers(con, accounts);
+            insertHistory(con, accounts, txnPerAccount);
+            try (Statement st = con.createStatement()) {
+                st.executeUpdate("UPDATE id_sequence SET next_val = " + (FIRST_CUSTOMER + accounts) + " WHERE seq_name IN ('Customer','Login')");
+                st.executeUpdate("UPDATE id_sequence SET next_val = " + (FIRST_ACCOUNT + accounts) + " WHERE seq_name = 'Account'");
+            }
+            con.commit();
+        }
+    }
+
+    public static long account(int i) {
+        return FIRST_ACCOUNT + i;
+    }
+
+    public static String username(int i) {
+        return "bench" + (FIRST_CUSTOMER + i);
+    }
+
+    public static String password(int i) {
+        return "pw" + (FIRST_CUSTOMER + i);
+    }
+
+    // The DDL and seed data of BMS.sql; the database selection and the sample report queries are skipped
+    static List<String> schemaStatements() throws IOException {
+        List<String> out = new ArrayList<>();
+        try (InputStream in = BenchDatabase.class.getResourceAsStream("/BMS.sql")) {
+            if (in == null) throw new IOException("BMS.sql is not on the classpath.");
+            BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = r.readLine()) != null) {
+                String t = line.trim();
+                if (t.isEmpty() || t.startsWith("--")) continue;
+                sb.append(line).append('\n');
+                if (!t.endsWith(";")) continue;
+                String sql = sb.toString().trim();
+                sql = sql.substring(0, sql.length() - 1);
+                sb.setLength(0);
+                String head = sql.toUpperCase();
+                if (head.startsWith("CREATE DATABASE") || head.startsWith("USE ") || head.startsWith("SELECT")) continue;
+                out.add(sql);
+            }
+        }
+        return out;
+    }
+
+    private static void insertCustomers(Connection con, int accounts) throws SQLException {
+        try (PreparedStatement c = con.prepareStatement(
+                "INSERT INTO Customer(customer_id,name,email,phone,address,branch_id) VALUES(?,?,?,?,?,?)");
+             PreparedStatement a = con.prepareStatement(
+                "INSERT INTO Account(account_no,balance,customer_id,next_txn_no) VALUES(?,?,?,1)");
+             PreparedStatement l = con.prepareStatement(
+                "INSERT INTO Login(login_id,username,password,customer_id) VALUES(?,?,?,?)")) {
+            for (int i = 0; i < accounts; i++) {
+                int id = FIRST_CUSTOMER + i;
+                c.setInt(1, id);
+                c.setString(2, "Bench Customer " + i);
+                c.setString(3, "bench" + i + "@example.com");
+                c.setString(4, "0170000" + i);
+                c.setString(5, "Dhaka");
+                c.setInt(6, 1 + i % 5);
+                c.addBatch();
+                a.setLong(1, account(i));
+                a.setBigDecimal(2, OPENING_BALANCE);
+                a.setInt(3, id);
+                a.addBatch();
+                l.setInt(1, id);
+                l.setString(2, username(i));
+                l.setString(3, password(i));
+                l.setInt(4, id);
+                l.addBatch();
+                if (i % 1_000 == 999) {
+                    c.executeBatch();
+                    a.executeBatch();
+                    l.executeBatch();
+                }
+            }
+            c.executeBatch();
+            a.executeBatch();
+            l.executeBatch();
+        }
+    }
+
+    private static void insertHistory(Connection con, int accounts, int txnPerAccount) throws SQLException {
+        if (txnPerAccount <= 0) return;
+        long start = System.currentTimeMillis() - (long) txnPerAccount * 60_000L;
+        try (PreparedStatement t = con.prepareStatement(
+                "INSERT INTO Txn(txn_no,txn_type,tnx_date,amount,account_no) VALUES(?,?,?,?,?)")) {
+            int pending = 0;
+            for (int i = 0; i < accounts; i++) {
+                for (int n = 1; n <= txnPerAccount; n++) {
+                    t.setInt(1, n);
+                    t.setString(2, TXN_TYPES[n % TXN_TYPES.length]);
+                    t.setTimestamp(3, new Timestamp(start + n * 60_000L));
+                    t.setBigDecimal(4, BigDecimal.valueOf(100 + n % 900, 0));
+                    t.setLong(5, account(i));
+                    t.addBatch();
+                    if (++pending == 5_000) {
+                        t.executeBatch();
+                        con.commit();
+                        pending = 0;
+                    }
+                }
+            }
+            t.executeBatch();
+        }
+        try (PreparedStatement ps = con.prepareStatement(
+                "UPDATE Account SET next_txn_no = ? WHERE account_no >= ?")) {
+            ps.setInt(1, txnPerAccount + 1);
+            ps.setLong(2, FIRST_ACCOUNT);
+            ps.executeUpdate();
+        }
+    }
+}
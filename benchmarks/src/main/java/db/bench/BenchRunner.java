@@ -0,0 +1,48 @@
+package db.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks once per thread count:
+//   java -Dbms.bench.threads=1,4,16 -jar target/benchmarks.jar [regular JMH options]
+// Without bms.bench.threads this is plain JMH (org.openjdk.jmh.Main).
+public final class BenchRunner {
+
+    private BenchRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String threads = System.getProperty("bms.bench.threads");
+        if (threads == null || threads.isBlank()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        CommandLineOptions cli = new CommandLineOptions(args);
+        List<RunResult> all = new ArrayList<>();
+        for (String t : threads.split(",")) {
+            int n = Integer.parseInt(t.trim());
+            Options opts = new OptionsBuilder()
+                    .parent(cli)
+                    .threads(n)
+                    .jvmArgsAppend("-Dbms.bench.poolSize=" + Math.max(n, 4))
+                    .build();
+            all.addAll(new Runner(opts).run());
+        }
+        System.out.println();
+        System.out.println("Benchmark (threads) score");
+        for (RunResult r : all) {
+            System.out.printf("%-60s %3d %12.1f %s%n",
+                    r.getParams().getBenchmark() + " " + r.getParams().getParamsKeys().stream()
+                            .map(k -> k + "=" + r.getParams().getParam(k)).reduce((a, b) -> a + "," + b).orElse(""),
+                    r.getParams().getThreads(),
+                    r.getPrimaryResult().getScore(),
+                    r.getPrimaryResult().getScoreUnit());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package db.bench;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import db.DBConnection;
+import db.Services;
+import db.SqlMetrics;
+
+// Release soak test: drives a weighted mix of Services calls from many workers, records latency
+// per operation in HdrHistograms, then reconciles money. The sum of all Account balances must equal
+// the starting sum plus accepted deposits minus accepted withdrawals; sign-ups and transfers move none.
+//
+//   java -cp target/benchmarks.jar db.bench.LoadDriver
+//   -Dbms.load.threads=64 -Dbms.load.durationSec=60 -Dbms.load.rate=0 (closed loop) | ops/s (open loop)
+//   -Dbms.load.mix=signup=1,balance=50,deposit=20,withdraw=15,transfer=14
+//   -Dbms.load.external=true uses -Dbms.db.url as is instead of seeding H2
+//   -Dbms.load.hgrm=prefix writes prefix-<op>.hgrm percentile files
+public final class LoadDriver {
+
+    enum Op { SIGNUP, BALANCE, DEPOSIT, WITHDRAW, TRANSFER }
+
+    private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final Services svc = new Services();
+    private final List<Long> accounts = new CopyOnWriteArrayList<>();
+    private final Op[] wheel;   // 100 slots filled by weight, so picking an op is one array read
+    private final Map<Op, Recorder> recorders = new EnumMap<>(Op.class);
+    private final Map<Op, LongAdder> rejected = new EnumMap<>(Op.class);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder depositedCents = new LongAdder();
+    private final LongAdder withdrawnCents = new LongAdder();
+    private final LongAdder uncertainCents = new LongAdder();   // deposits/withdrawals that failed with SQLException
+
+    private LoadDriver(Map<Op, Integer> mix) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        if (total <= 0) throw new IllegalArgumentException("Operation mix is empty.");
+        List<Op> slots = new ArrayList<>();
+        for (Map.Entry<Op, Integer> e : mix.entrySet()) {
+            int n = Math.max(e.getValue() > 0 ? 1 : 0, Math.round(100f * e.getValue() / total));
+            for (int i = 0; i < n; i++) slots.add(e.getKey());
+        }
+        this.wheel = slots.toArray(new Op[0]);
+        for (Op op : Op.values()) {
+            recorders.put(op, new Recorder(MAX_LATENCY_NANOS, 3));
+            rejected.put(op, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("bms.load.threads", 64);
+        long durationSec = Long.getLong("bms.load.durationSec", 60);
+        long rate = Long.getLong("bms.load.rate", 0);
+        Map<Op, Integer> mix = parseMix(System.getProperty("bms.load.mix",
+                "signup=1,balance=50,deposit=20,withdraw=15,transfer=14"));
+
+        if (!Boolean.getBoolean("bms.load.external")) {
+            BenchDatabase.configure(Integer.getInteger("bms.bench.poolSize", Math.min(threads, 32)));
+            BenchDatabase.seed(Integer.getInteger("bms.load.accounts", 10_000), Integer.getInteger("bms.load.txnPerAccount", 10));
+        }
+
+        LoadDriver d = new LoadDriver(mix);
+        d.accounts.addAll(allAccounts());
+        if (d.accounts.size() < 2) throw new IllegalStateException("Need at least two accounts to run transfers.");
+        BigDecimal before = totalBalance();
+
+        System.out.printf("Running %s for %ds on %d workers (%s, %d accounts)%n", mix, durationSec, threads,
+                rate > 0 ? "open loop, " + rate + " ops/s" : "closed loop", d.accounts.size());
+        long elapsed = d.run(threads, durationSec, rate);
+        d.report(elapsed);
+
+        BigDecimal after = totalBalance();
+        BigDecimal expected = before.add(BigDecimal.valueOf(d.depositedCents.sum() - d.withdrawnCents.sum(), 2));
+        BigDecimal drift = after.subtract(expected);
+        boolean ok = drift.signum() == 0;
+        System.out.printf("%nReconciliation: start %s + deposits %s - withdrawals %s = expected %s, actual %s, drift %s%n",
+                before, BigDecimal.valueOf(d.depositedCents.sum(), 2), BigDecimal.valueOf(d.withdrawnCents.sum(), 2),
+                expected, after, drift);
+        if (d.uncertainCents.sum() > 0) {
+            System.out.printf("  %s of postings failed with an unknown outcome%n", BigDecimal.valueOf(d.uncertainCents.sum(), 2));
+        }
+        System.out.println(ok ? "PASS money conserved" : "FAIL money created or destroyed");
+        System.out.println("Pool: " + DBConnection.poolStats());
+        System.out.println("SQL by total time:");
+        for (SqlMetrics.StatementStats st : DBConnection.sqlStats()) System.out.println("  " + st);
+        System.exit(ok ? 0 : 1);
+    }
+
+    // Returns the wall time actually spent, in nanoseconds
+    private long run(int threads, long durationSec, long rate) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSec);
+        // Open loop: each worker owns an even share of the rate, and latency is measured from the
+        // intended start so a stalled system is charged for the requests it delayed
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / rate : 0;
+        ExecutorService pool = newWorkerPool(threads);
+        for (int t = 0; t < threads; t++) {
+            long offset = intervalNanos == 0 ? 0 : intervalNanos * t / threads;
+            pool.execute(() -> {
+                long next = start + offset;
+                while (true) {
+                    long now = System.nanoTime();
+                    if (now - end >= 0) return;
+                    long intended = now;
+                    if (intervalNanos > 0) {
+                        if (next - now > 0) parkUntil(next);
+                        intended = next;
+                        next += intervalNanos;
+                    }
+                    Op op = wheel[ThreadLocalRandom.current().nextInt(wheel.length)];
+                    execute(op);
+                    recorders.get(op).recordValue(Math.min(MAX_LATENCY_NANOS, System.nanoTime() - intended));
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(durationSec + 120, TimeUnit.SECONDS);
+        return System.nanoTime() - start;
+    }
+
+    private void execute(Op op) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long cents = rnd.nextLong(1, 10_001);
+        BigDecimal amount = BigDecimal.valueOf(cents, 2);
+        try {
+            switch (op) {
+                case SIGNUP:
+                    Services.SignUpResult r = svc.createCustomerAccount("Load " + rnd.nextInt(1_000_000),
+                            "load@example.com", "01700000000", "Dhaka", 1 + rnd.nextInt(5));
+                    accounts.add(r.accountNo);
+                    break;
+                case BALANCE:
+                    svc.checkBalance(pick(rnd));
+                    break;
+                case DEPOSIT:
+                    try {
+                        svc.deposit(pick(rnd), amount);
+                        depositedCents.add(cents);
+                    } catch (SQLException e) {
+                        uncertainCents.add(cents);
+                        throw e;
+                    }
+                    break;
+                case WITHDRAW:
+                    try {
+                        svc.withdraw(pick(rnd), amount);
+                        withdrawnCents.add(cents);
+                    } catch (SQLException e) {
+                        uncertainCents.add(cents);
+                        throw e;
+                    }
+                    break;
+                case TRANSFER:
+                    long from = pick(rnd);
+                    long to = pick(rnd);
+                    if (from == to) return;
+                    svc.transfer(from, to, amount);
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            rejected.get(op).increment();   // insufficient balance and the like; nothing moved
+        } catch (Exception e) {
+            errors.increment();
+        }
+    }
+
+    private long pick(ThreadLocalRandom rnd) {
+        return accounts.get(rnd.nextInt(accounts.size()));
+    }
+
+    private void report(long elapsedNanos) throws Exception {
+        double seconds = elapsedNanos / 1e9;
+        Histogram all = new Histogram(MAX_LATENCY_NANOS, 3);
+        String prefix = System.getProperty("bms.load.hgrm");
+        System.out.printf("%n%-9s %10s %9s %9s %9s %9s %9s %9s%n",
+                "op", "count", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "rejected");
+        for (Op op : Op.values()) {
+            Histogram h = recorders.get(op).getIntervalHistogram();
+            all.add(h);
+            if (h.getTotalCount() == 0) continue;
+            printRow(op.name().toLowerCase(), h, seconds, rejected.get(op).sum());
+            if (prefix != null) {
+                try (PrintStream out = new PrintStream(new FileOutputStream(prefix + "-" + op.name().toLowerCase() + ".hgrm"))) {
+                    h.outputPercentileDistribution(out, 1_000_000.0);
+                }
+            }
+        }
+        printRow("all", all, seconds, rejected.values().stream().mapToLong(LongAdder::sum).sum());
+        System.out.println("errors: " + errors.sum());
+    }
+
+    private static void printRow(String name, Histogram h, double seconds, long rejected) {
+        System.out.printf("%-9s %10d %9.0f %9.2f %9.2f %9.2f %9.2f %9d%n", name, h.getTotalCount(), h.getTotalCount() / seconds,
+                h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6,
+                h.getMaxValue() / 1e6, rejected);
+    }
+
+    private static void parkUntil(long deadline) {
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            java.util.concurrent.locks.LockSupport.parkNanos(left);
+        }
+    }
+
+    // Virtual threads on JDK 21+, looked up reflectively so the module still targets 17
+    private static ExecutorService newWorkerPool(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    static Map<Op, Integer> parseMix(String spec) {
+        Map<Op, Integer> mix = new EnumMap<>(Op.class);
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) throw new IllegalArgumentException("Bad mix entry: " + part);
+            mix.put(Op.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+        }
+        return mix;
+    }
+
+    private static List<Long> allAccounts() throws SQLException {
+        List<Long> out = new ArrayList<>();
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement("SELECT account_no FROM Account");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.add(rs.getLong(1));
+        }
+        return out;
+    }
+
+    private static BigDecimal totalBalance() throws SQLException {
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement("SELECT COALESCE(SUM(balance), 0) FROM Account");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getBigDecimal(1);
+        }
+    }
+}
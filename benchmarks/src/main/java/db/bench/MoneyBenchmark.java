@@ -0,0 +1,54 @@
+package db.bench;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import db.Money;
+
+// The arithmetic of one transfer (funds check, debit, credit, rounding to the column scale) in
+// BigDecimal and in Money, without the database. Run with -prof gc and compare gc.alloc.rate.norm:
+//   java -jar target/benchmarks.jar MoneyBenchmark -prof gc
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyBenchmark {
+
+    private BigDecimal fromBalance = new BigDecimal("1000000.00");
+    private BigDecimal toBalance = new BigDecimal("250.00");
+    private final BigDecimal amount = new BigDecimal("12.34");
+
+    private Money fromMoney = Money.parse("1000000.00");
+    private Money toMoney = Money.parse("250.00");
+    private final Money amountMoney = Money.parse("12.34");
+
+    @Benchmark
+    public BigDecimal bigDecimalTransfer() {
+        BigDecimal a = amount.setScale(2, RoundingMode.HALF_UP);
+        if (fromBalance.compareTo(a) < 0) fromBalance = fromBalance.add(new BigDecimal("1000000.00"));
+        fromBalance = fromBalance.subtract(a);
+        toBalance = toBalance.add(a);
+        return toBalance;
+    }
+
+    @Benchmark
+    public Money moneyTransfer() {
+        if (fromMoney.compareTo(amountMoney) < 0) fromMoney = fromMoney.plus(Money.ofCents(100_000_000));
+        fromMoney = fromMoney.minus(amountMoney);
+        toMoney = toMoney.plus(amountMoney);
+        return toMoney;
+    }
+}
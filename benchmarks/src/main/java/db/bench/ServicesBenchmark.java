@@ -0,0 +1,114 @@
+package db.bench;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import db.Models.Txn;
+import db.Money;
+import db.Models.TxnPage;
+import db.Services;
+
+// Services hot paths against embedded H2. Thread count comes from -t (or BenchRunner), data size
+// from the accounts / txnPerAccount parameters. Each fork seeds its own database.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ServicesBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class World {
+        @Param({"1000"})
+        public int accounts;
+
+        @Param({"10", "1000"})
+        public int txnPerAccount;
+
+        Services svc;
+
+        @Setup(Level.Trial)
+        public void seed() throws Exception {
+            BenchDatabase.configure(Integer.getInteger("bms.bench.poolSize", 64));
+            BenchDatabase.seed(accounts, txnPerAccount);
+            svc = new Services();
+        }
+
+        long randomAccount() {
+            return BenchDatabase.account(ThreadLocalRandom.current().nextInt(accounts));
+        }
+    }
+
+    private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+    private static final Money MONEY = Money.ofCents(100);
+
+    @Benchmark
+    public void deposit(World w) throws Exception {
+        w.svc.deposit(w.randomAccount(), AMOUNT);
+    }
+
+    // Same posting without the BigDecimal at the API edge; compare with deposit under -prof gc
+    @Benchmark
+    public void depositMoney(World w) throws Exception {
+        w.svc.deposit(w.randomAccount(), MONEY);
+    }
+
+    @Benchmark
+    public void withdraw(World w) throws Exception {
+        w.svc.withdraw(w.randomAccount(), AMOUNT);
+    }
+
+    @Benchmark
+    public void transfer(World w) throws Exception {
+        long from = w.randomAccount();
+        long to = w.randomAccount();
+        if (from == to) to = BenchDatabase.account((int) ((to - BenchDatabase.FIRST_ACCOUNT + 1) % w.accounts));
+        w.svc.transfer(from, to, AMOUNT);
+    }
+
+    @Benchmark
+    public void transferMoney(World w) throws Exception {
+        long from = w.randomAccount();
+        long to = w.randomAccount();
+        if (from == to) to = BenchDatabase.account((int) ((to - BenchDatabase.FIRST_ACCOUNT + 1) % w.accounts));
+        w.svc.transfer(from, to, MONEY);
+    }
+
+    @Benchmark
+    public BigDecimal checkBalance(World w) throws Exception {
+        return w.svc.checkBalance(w.randomAccount());
+    }
+
+    @Benchmark
+    public List<Txn> transactionHistory(World w) throws Exception {
+        return w.svc.transactionHistory(w.randomAccount());
+    }
+
+    @Benchmark
+    public TxnPage transactionHistoryPage(World w) throws Exception {
+        return w.svc.transactionHistoryPage(w.randomAccount(), null, 20);
+    }
+
+    @Benchmark
+    public Integer login(World w) throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(w.accounts);
+        return w.svc.login(BenchDatabase.username(i), BenchDatabase.password(i));
+    }
+}
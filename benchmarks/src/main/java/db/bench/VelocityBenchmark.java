@@ -0,0 +1,59 @@
+package db.bench;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import db.Money;
+import db.VelocityLimiter;
+
+// The velocity check that withdraw and transfer run before touching the database, without the
+// database: one acquire and its release per operation, over `accounts` distinct accounts.
+//   java -jar target/benchmarks.jar VelocityBenchmark -t 8
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class VelocityBenchmark {
+
+    @Param({"1000", "100000"})
+    public int accounts;
+
+    private VelocityLimiter limiter;
+    private final Money amount = Money.ofCents(1_00);
+
+    @State(Scope.Thread)
+    public static class Picker {
+        final SplittableRandom rnd = new SplittableRandom();
+    }
+
+    @Setup
+    public void setUp() {
+        VelocityLimiter.Config cfg = new VelocityLimiter.Config();
+        limiter = new VelocityLimiter(cfg, Map::of, () -> Map.of(cfg.defaultTier, new VelocityLimiter.Limit(10, 200_000_00)));
+    }
+
+    @Benchmark
+    public int acquireRelease(Picker p) throws Exception {
+        long account = 1_000_000L + p.rnd.nextInt(accounts);
+        int token = limiter.acquire(account, amount);
+        limiter.release(account, amount, token);
+        return token;
+    }
+}